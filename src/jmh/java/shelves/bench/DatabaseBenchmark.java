@@ -0,0 +1,182 @@
+package shelves.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Database reads and writes against a temporary SQLite file, over a range of table sizes and dependency fan-outs
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    // a populated database that the read benchmarks share for the whole trial
+    @State(Scope.Benchmark)
+    public static class Populated {
+
+        @Param({"1000", "10000"})
+        public int tableSize;
+
+        @Param({"0", "4", "16"})
+        public int fanOut;
+
+        Object database;
+        private Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            file = Fixtures.createDatabaseFile();
+            database = Shelves.newDatabase(Fixtures.url(file));
+            Fixtures.populate(database, tableSize, fanOut);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Throwable {
+            Shelves.close(database);
+            Fixtures.deleteDatabaseFile(file);
+        }
+    }
+
+    // a larger database for the search benchmarks, which compare the full-text index with the LIKE scan it
+    // replaced. populating a million rows takes a while, so these sizes aren't used for the other benchmarks
+    @State(Scope.Benchmark)
+    public static class Searchable {
+
+        @Param({"10000", "100000", "1000000"})
+        public int rows;
+
+        Object database;
+        private Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            file = Fixtures.createDatabaseFile();
+            database = Shelves.newDatabase(Fixtures.url(file));
+            Fixtures.populate(database, rows, 0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Throwable {
+            Shelves.close(database);
+            Fixtures.deleteDatabaseFile(file);
+        }
+    }
+
+    // a database that is rebuilt before every iteration, so the rows written by one iteration don't change the
+    // table size the next one sees
+    @State(Scope.Benchmark)
+    public static class Writable {
+
+        @Param({"1000", "10000"})
+        public int tableSize;
+
+        @Param({"0", "4", "16"})
+        public int fanOut;
+
+        Object database;
+        private Path file;
+        private int taskNumber;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Throwable {
+            file = Fixtures.createDatabaseFile();
+            database = Shelves.newDatabase(Fixtures.url(file));
+            Fixtures.populate(database, tableSize, fanOut);
+            taskNumber = tableSize;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws Throwable {
+            Shelves.close(database);
+            Fixtures.deleteDatabaseFile(file);
+        }
+
+        // a new task depending on fanOut random existing ones
+        Object nextTask() throws Throwable {
+            int[] dependencies = new int[fanOut];
+            for (int i = 0; i < fanOut; i++){
+                dependencies[i] = randomID(tableSize);
+            }
+            return Fixtures.newTask(taskNumber++, 3, dependencies);
+        }
+    }
+
+    @Benchmark
+    public Object getTask(Populated state) throws Throwable {
+        return Shelves.getTask(state.database, randomID(state.tableSize));
+    }
+
+    @Benchmark
+    public Object getAllTasks(Populated state) throws Throwable {
+        return Shelves.getAllTasks(state.database);
+    }
+
+    @Benchmark
+    public Object search(Searchable state) throws Throwable {
+        return Shelves.search(state.database, Fixtures.WORDS[0]);
+    }
+
+    // a two-letter prefix, the way a search looks while someone is still typing
+    @Benchmark
+    public Object searchPrefix(Searchable state) throws Throwable {
+        return Shelves.search(state.database, Fixtures.WORDS[1].substring(0, 2));
+    }
+
+    // the baseline: the scan search used to run for every query, and still runs for one with no words in it.
+    // it returns every match rather than the best SEARCH_RESULT_LIMIT
+    @Benchmark
+    public Object searchLike(Searchable state) throws Throwable {
+        return Shelves.searchTaskNames(state.database, Fixtures.WORDS[0]);
+    }
+
+    @Benchmark
+    public Object searchLikePrefix(Searchable state) throws Throwable {
+        return Shelves.searchTaskNames(state.database, Fixtures.WORDS[1].substring(0, 2));
+    }
+
+    // a task past the first fanOut has exactly fanOut dependencies, so these show latency against fan-out. larger
+    // fan-outs than the defaults can be passed with -p fanOut=...
+    @Benchmark
+    public Object getDependencyTasks(Populated state) throws Throwable {
+        return Shelves.getDependencyTasks(state.database, randomIDAfter(state.fanOut, state.tableSize));
+    }
+
+    // the way get_dependencies read the tasks before getDependencyTasks: one getTask for each ID
+    @Benchmark
+    public void getDependencyTasksOneByOne(Populated state, Blackhole blackhole) throws Throwable {
+        for (Object ID : Shelves.getDependencies(state.database, randomIDAfter(state.fanOut, state.tableSize))){
+            blackhole.consume(Shelves.getTask(state.database, Integer.parseInt((String) ID)));
+        }
+    }
+
+    // dependents are picked at random from the tasks after each one, so a task has fanOut of them on average
+    @Benchmark
+    public Object getDependentTasks(Populated state) throws Throwable {
+        return Shelves.getDependentTasks(state.database, randomID(state.tableSize));
+    }
+
+    @Benchmark
+    public boolean addTask(Writable state) throws Throwable {
+        return Shelves.addTask(state.database, state.nextTask());
+    }
+
+    @Benchmark
+    public void addDependency(Writable state, Blackhole blackhole) throws Throwable {
+        int dependentID = randomID(state.tableSize);
+        int dependencyID = randomID(state.tableSize);
+        blackhole.consume(Shelves.addDependency(state.database, dependentID, dependencyID));
+    }
+
+    private static int randomID(int tableSize){
+        return ThreadLocalRandom.current().nextInt(tableSize) + 1;
+    }
+
+    // an ID from after the first count tasks
+    private static int randomIDAfter(int count, int tableSize){
+        return ThreadLocalRandom.current().nextInt(count, tableSize) + 1;
+    }
+}
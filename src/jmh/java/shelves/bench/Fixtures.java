@@ -0,0 +1,82 @@
+package shelves.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// builds the databases and tasks the benchmarks run against. everything is made from a fixed seed, so two runs
+// of the same benchmark, say before and after a change, see the same data
+final class Fixtures {
+
+    // every task name gets one of these, so a search for one matches about an eighth of the table
+    static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel"};
+    private static final long SEED = 42;
+    private static final int BATCH_SIZE = 10000; // tables up to this size get the same data as before batching
+
+    private Fixtures(){
+    }
+
+    // a database in a new temporary file
+    static Path createDatabaseFile() throws IOException {
+        return Files.createTempFile("shelves-bench", ".sqlite");
+    }
+
+    static String url(Path file){
+        return "jdbc:sqlite:" + file;
+    }
+
+    // fills a database with tableSize tasks, each depending on up to fanOut earlier ones in the same batch.
+    // tasks are added BATCH_SIZE at a time, so a table of a million doesn't have to be held in memory at once
+    static void populate(Object database, int tableSize, int fanOut) throws Throwable {
+        Random random = new Random(SEED);
+
+        for (int first = 0; first < tableSize; first += BATCH_SIZE){
+            int count = Math.min(BATCH_SIZE, tableSize - first);
+            List<Object> tasks = new ArrayList<>(count);
+            int[][] batchDependencies = new int[count][];
+
+            for (int i = 0; i < count; i++){
+                tasks.add(newTask(first + i, 3, new int[0]));
+                batchDependencies[i] = random.ints(0, Math.max(i, 1)).distinct().limit(Math.min(fanOut, i)).toArray();
+            }
+            Shelves.addTasks(database, tasks, batchDependencies);
+        }
+    }
+
+    static Object newTask(int number, int requirementCount, int[] dependencies) throws Throwable {
+        return Shelves.newTask(name(number), "Benchmark task number " + number, requirements(requirementCount),
+                System.currentTimeMillis(), dependencies);
+    }
+
+    static String name(int number){
+        return "Task " + number + " " + WORDS[number % WORDS.length];
+    }
+
+    static List<String> requirements(int count){
+        List<String> requirements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            requirements.add("Requirement " + i);
+        }
+        return requirements;
+    }
+
+    // IDs 1 through count
+    static int[] IDs(int count){
+        int[] IDs = new int[count];
+        for (int i = 0; i < count; i++){
+            IDs[i] = i + 1;
+        }
+        return IDs;
+    }
+
+    // removes the database file and SQLite's write-ahead log files next to it
+    static void deleteDatabaseFile(Path file) throws IOException {
+        for (String suffix : Arrays.asList("", "-wal", "-shm")){
+            Files.deleteIfExists(Path.of(file + suffix));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package shelves.bench;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// converting tasks to and from JSON and the database's list columns, with fanOut requirements and dependencies
+// on each task
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int fanOut;
+
+    // how many tasks go into each makeOutputJSON call
+    @Param({"100"})
+    public int resultCount;
+
+    private Object task;
+    private String taskPayload;
+    private List<JSONObject> taskObjects;
+    private List<String> list;
+    private String listString;
+
+    private Object requestHandler;
+    private Object database; // only used for its list conversion methods
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        task = Fixtures.newTask(1, fanOut, Fixtures.IDs(fanOut));
+
+        // the body of an add_task request
+        JSONObject payload = new JSONObject();
+        payload.put("id", 1);
+        payload.put("task_name", Fixtures.name(1));
+        payload.put("description", "Benchmark task number 1");
+        payload.put("date_created", System.currentTimeMillis());
+        payload.put("date_due", System.currentTimeMillis());
+        payload.put("requirements", new JSONArray(Fixtures.requirements(fanOut)));
+        payload.put("dependencies", Shelves.toJSON(task).get("dependencies")); // IDs go out as strings
+        payload.put("dependents", new JSONArray());
+        taskPayload = payload.toString();
+
+        taskObjects = new ArrayList<>(resultCount);
+        for (int i = 0; i < resultCount; i++){
+            taskObjects.add(Shelves.toJSON(Fixtures.newTask(i, fanOut, Fixtures.IDs(fanOut))));
+        }
+
+        requestHandler = Shelves.newRequestHandler();
+        file = Fixtures.createDatabaseFile();
+        database = Shelves.newDatabase(Fixtures.url(file));
+
+        list = Fixtures.requirements(fanOut);
+        listString = Shelves.convertListToString(database, list);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Shelves.close(database);
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    @Benchmark
+    public Object toJSON() throws Throwable {
+        return Shelves.toJSON(task);
+    }
+
+    @Benchmark
+    public Object parseTaskJSON() throws Throwable {
+        return Shelves.parseTaskJSON(requestHandler, taskPayload);
+    }
+
+    // makeOutputJSON only builds the object; writing it out is most of what a response costs, so that's included
+    @Benchmark
+    public String makeOutputJSON() throws Throwable {
+        return Shelves.makeOutputJSON(requestHandler, taskObjects).toString();
+    }
+
+    @Benchmark
+    public String convertListToString() throws Throwable {
+        return Shelves.convertListToString(database, list);
+    }
+
+    @Benchmark
+    public Object convertStringToList() throws Throwable {
+        return Shelves.convertStringToList(database, listString);
+    }
+}
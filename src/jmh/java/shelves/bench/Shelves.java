@@ -0,0 +1,189 @@
+package shelves.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import org.json.JSONObject;
+import java.util.List;
+
+// JMH won't generate code for benchmarks in the default package, where all of the server's classes live, and
+// code in a named package can't refer to default package classes by name. so the benchmarks call the server
+// through these method handles instead. they are static final, which lets the JIT inline through them, so a
+// benchmark measures the method and not the call
+final class Shelves {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final Class<?> DATABASE = load("Database");
+    private static final Class<?> TASK = load("Task");
+    private static final Class<?> REQUEST_HANDLER = load("RequestHandler");
+    private static final Class<?> AUTHENTICATION = load("ServerSideAuthentication");
+
+    private static final MethodHandle NEW_DATABASE = constructor(DATABASE, String.class);
+    private static final MethodHandle CLOSE = method(DATABASE, "close");
+    private static final MethodHandle GET_TASK = method(DATABASE, "getTask", int.class);
+    private static final MethodHandle GET_ALL_TASKS = method(DATABASE, "getAllTasks");
+    private static final MethodHandle SEARCH = method(DATABASE, "search", String.class);
+    private static final MethodHandle SEARCH_TASK_NAMES = method(DATABASE, "searchTaskNames", String.class);
+    private static final MethodHandle GET_DEPENDENCIES = method(DATABASE, "getDependencies", int.class);
+    private static final MethodHandle GET_DEPENDENCY_TASKS = method(DATABASE, "getDependencyTasks", int.class);
+    private static final MethodHandle GET_DEPENDENT_TASKS = method(DATABASE, "getDependentTasks", int.class);
+    private static final MethodHandle ADD_TASK = method(DATABASE, "addTask", TASK);
+    private static final MethodHandle ADD_TASKS = method(DATABASE, "addTasks", List.class, int[][].class);
+    private static final MethodHandle ADD_DEPENDENCY = method(DATABASE, "addDependency", int.class, int.class);
+    private static final MethodHandle CONVERT_LIST_TO_STRING = method(DATABASE, "convertListToString", List.class);
+    private static final MethodHandle CONVERT_STRING_TO_LIST = method(DATABASE, "convertStringToList", String.class);
+
+    private static final MethodHandle NEW_TASK = constructor(TASK, String.class, String.class, List.class,
+            long.class, boolean.class, int[].class);
+    private static final MethodHandle TO_JSON = method(TASK, "toJSON");
+
+    private static final MethodHandle NEW_REQUEST_HANDLER = constructor(REQUEST_HANDLER, DATABASE, AUTHENTICATION,
+            load("ResponseCompression"), load("ResponseCache"), load("ChangeFeed"));
+    private static final MethodHandle PARSE_TASK_JSON = method(REQUEST_HANDLER, "parseTaskJSON", String.class);
+    private static final MethodHandle MAKE_OUTPUT_JSON = method(REQUEST_HANDLER, "makeOutputJSON", List.class);
+
+    private Shelves(){
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~DATABASE~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    static Object newDatabase(String url) throws Throwable {
+        return (Object) NEW_DATABASE.invokeExact(url);
+    }
+
+    static void close(Object database) throws Throwable {
+        CLOSE.invokeExact(database);
+    }
+
+    static Object getTask(Object database, int ID) throws Throwable {
+        return (Object) GET_TASK.invokeExact(database, ID);
+    }
+
+    static List<?> getAllTasks(Object database) throws Throwable {
+        return (List<?>) GET_ALL_TASKS.invokeExact(database);
+    }
+
+    static List<?> search(Object database, String query) throws Throwable {
+        return (List<?>) SEARCH.invokeExact(database, query);
+    }
+
+    static List<?> searchTaskNames(Object database, String query) throws Throwable {
+        return (List<?>) SEARCH_TASK_NAMES.invokeExact(database, query);
+    }
+
+    static List<?> getDependencies(Object database, int ID) throws Throwable {
+        return (List<?>) GET_DEPENDENCIES.invokeExact(database, ID);
+    }
+
+    static List<?> getDependencyTasks(Object database, int ID) throws Throwable {
+        return (List<?>) GET_DEPENDENCY_TASKS.invokeExact(database, ID);
+    }
+
+    static List<?> getDependentTasks(Object database, int ID) throws Throwable {
+        return (List<?>) GET_DEPENDENT_TASKS.invokeExact(database, ID);
+    }
+
+    static boolean addTask(Object database, Object task) throws Throwable {
+        return (boolean) ADD_TASK.invokeExact(database, task);
+    }
+
+    static int[] addTasks(Object database, List<?> tasks, int[][] batchDependencies) throws Throwable {
+        return (int[]) ADD_TASKS.invokeExact(database, (List) tasks, batchDependencies);
+    }
+
+    static boolean addDependency(Object database, int dependentID, int dependencyID) throws Throwable {
+        return (boolean) ADD_DEPENDENCY.invokeExact(database, dependentID, dependencyID);
+    }
+
+    static String convertListToString(Object database, List<String> list) throws Throwable {
+        return (String) CONVERT_LIST_TO_STRING.invokeExact(database, (List) list);
+    }
+
+    static List<?> convertStringToList(Object database, String string) throws Throwable {
+        return (List<?>) CONVERT_STRING_TO_LIST.invokeExact(database, string);
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~TASK~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    static Object newTask(String taskName, String description, List<String> requirements, long dateDue,
+                          int[] dependencies) throws Throwable {
+        return (Object) NEW_TASK.invokeExact(taskName, description, (List) requirements, dateDue, false,
+                dependencies);
+    }
+
+    static JSONObject toJSON(Object task) throws Throwable {
+        return (JSONObject) TO_JSON.invokeExact(task);
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~REQUESTS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // only the parsing methods are benchmarked, so the handler needs none of the server's other parts
+    static Object newRequestHandler() throws Throwable {
+        return (Object) NEW_REQUEST_HANDLER.invokeExact((Object) null, (Object) null, (Object) null, (Object) null,
+                (Object) null);
+    }
+
+    static Object parseTaskJSON(Object requestHandler, String payload) throws Throwable {
+        return (Object) PARSE_TASK_JSON.invokeExact(requestHandler, payload);
+    }
+
+    static JSONObject makeOutputJSON(Object requestHandler, List<JSONObject> jsonObjects) throws Throwable {
+        return (JSONObject) MAKE_OUTPUT_JSON.invokeExact(requestHandler, (List) jsonObjects);
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~HELPERS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    private static Class<?> load(String name){
+        try {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException e){
+            throw new IllegalStateException("Server class " + name + " isn't on the classpath", e);
+        }
+    }
+
+    // server types in the handle's type become Object, so callers can use invokeExact without naming them
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... parameterTypes){
+        try {
+            Method method = owner.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true); // the server runs on the classpath, so its private members can be opened
+            MethodHandle handle = LOOKUP.unreflect(method);
+            return handle.asType(hideServerTypes(handle.type()));
+        }
+        catch (ReflectiveOperationException e){
+            throw new IllegalStateException("Can't find " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameterTypes){
+        try {
+            Constructor<?> constructor = owner.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectConstructor(constructor);
+            return handle.asType(hideServerTypes(handle.type()));
+        }
+        catch (ReflectiveOperationException e){
+            throw new IllegalStateException("Can't find a constructor for " + owner.getName(), e);
+        }
+    }
+
+    private static MethodType hideServerTypes(MethodType type){
+        MethodType hidden = type;
+        for (int i = 0; i < type.parameterCount(); i++){
+            if (isServerType(type.parameterType(i))){
+                hidden = hidden.changeParameterType(i, Object.class);
+            }
+        }
+        if (isServerType(type.returnType())){
+            hidden = hidden.changeReturnType(Object.class);
+        }
+        return hidden;
+    }
+
+    private static boolean isServerType(Class<?> type){
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+}
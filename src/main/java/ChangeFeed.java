@@ -0,0 +1,423 @@
+import com.sun.net.httpserver.HttpExchange;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// streams changes to the tasks to clients as Server-Sent Events (text/event-stream). each change is written into
+// a ring buffer once, as the frame sent to every subscriber. one dispatcher thread hands new frames to each
+// subscriber's own bounded queue, and a few writer threads drain the queues to the clients, so a client that
+// reads slowly only holds up itself. subscribe() returns as soon as the headers are sent, so an idle subscriber
+// holds a connection but no thread. a client that reconnects with the ID of the last event it saw gets what it
+// missed, if the ring still has it, and otherwise a "reset" event telling it to fetch the tasks again; a client
+// whose queue fills up gets the same reset in place of what it couldn't keep up with.
+// a client that stops reading altogether blocks the write to it, since the exchange's stream can only block.
+// once a write has taken longer than the write timeout the subscriber is dropped, and the writer pool grows by
+// one for as long as that write stays stuck, so the other subscribers keep the same number of writers
+class ChangeFeed implements DatabaseListener {
+
+    static final int DEFAULT_BUFFER_SIZE = 4096;
+    static final int DEFAULT_MAX_SUBSCRIBERS = 10000;
+    static final int DEFAULT_QUEUE_SIZE = 256; // frames a subscriber can have waiting before it's sent a reset
+    static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 10000;
+    private static final int WRITER_THREADS = 4;
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(15); // also finds clients that went away
+    private static final byte[] HEARTBEAT = ": heartbeat\n\n".getBytes(StandardCharsets.UTF_8); // clients ignore it
+
+    // event IDs are <stream>:<version>. the ring starts empty when the server restarts, so an ID from before then
+    // has a different stream and gets a reset, rather than being taken for a version the ring should have
+    private final String streamID = Long.toString(System.currentTimeMillis(), 36);
+
+    private final byte[][] frames; // by version modulo the size; guarded by this
+    private long latestVersion; // guarded by this
+    private boolean wakeUp = false; // set when there are new events or subscribers; guarded by this
+
+    private final int maxSubscribers;
+    private final int queueSize;
+    private final long writeTimeoutNanos;
+    private final AtomicInteger subscriberCount = new AtomicInteger(); // slots taken, including ones being set up
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Set<Subscriber> stalled = ConcurrentHashMap.newKeySet(); // dropped, but their writer hasn't returned
+    private final Thread dispatcher;
+    private final ThreadPoolExecutor writers;
+    private volatile boolean running = true;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder resets = new LongAdder(); // subscribers sent a reset instead of the events they missed
+    private final LongAdder evictions = new LongAdder(); // subscribers dropped for missing the write timeout
+
+    ChangeFeed(Database tasksDB){
+        this(tasksDB, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_SUBSCRIBERS);
+    }
+
+    ChangeFeed(Database tasksDB, int bufferSize, int maxSubscribers){
+        this(tasksDB, bufferSize, maxSubscribers, DEFAULT_QUEUE_SIZE, DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    // keeps the last bufferSize events for clients that reconnect, and up to queueSize unsent ones per client
+    ChangeFeed(Database tasksDB, int bufferSize, int maxSubscribers, int queueSize, long writeTimeoutMillis){
+        if (bufferSize < 1 || queueSize < 1){
+            throw new IllegalArgumentException("The change feed needs room for at least one event");
+        }
+        this.frames = new byte[bufferSize][];
+        this.maxSubscribers = maxSubscribers;
+        this.queueSize = queueSize;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.latestVersion = tasksDB.getDataVersion();
+
+        writers = new ThreadPoolExecutor(WRITER_THREADS, WRITER_THREADS, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "change-feed-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        dispatcher = new Thread(this::dispatch, "change-feed");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        tasksDB.addListener(this);
+    }
+
+    @Override
+    public void onChange(long version, Change change, int[] IDs, int[] relatedIDs){
+        JSONObject data = new JSONObject();
+        data.put("version", version);
+        data.put("ids", new JSONArray(IDs));
+        data.put("related_ids", new JSONArray(relatedIDs)); // tasks whose dependencies or dependents changed
+        byte[] frame = frame(version, getEventType(change), data.toString());
+
+        synchronized (this) {
+            frames[(int) (version % frames.length)] = frame;
+            latestVersion = version;
+            wakeUp = true;
+            notifyAll();
+        }
+        events.increment();
+    }
+
+    // starts streaming to a client, from the event after lastEventID, or from now on if lastEventID is null.
+    // returns false without sending anything if there are already as many subscribers as are allowed
+    boolean subscribe(HttpExchange exchange, String lastEventID) throws IOException {
+        if (!reserveSlot()) {
+            return false;
+        }
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0); // chunked, and left open after the handler returns
+        }
+        catch (IOException e) {
+            subscriberCount.decrementAndGet();
+            throw e;
+        }
+        add(new Subscriber(exchange.getResponseBody(), exchange::close), lastEventID);
+        return true;
+    }
+
+    // the same for a stream whose headers have already been sent; connection is closed when the subscriber is
+    // dropped. returns false if there are already as many subscribers as are allowed
+    boolean subscribe(OutputStream out, Closeable connection, String lastEventID){
+        if (!reserveSlot()) {
+            return false;
+        }
+        add(new Subscriber(out, connection), lastEventID);
+        return true;
+    }
+
+    // takes a subscriber slot if there's one free, so concurrent subscribes can't go over the limit between them
+    private boolean reserveSlot(){
+        int count;
+        do {
+            count = subscriberCount.get();
+            if (count >= maxSubscribers) {
+                return false;
+            }
+        } while (!subscriberCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    private void add(Subscriber subscriber, String lastEventID){
+        long since;
+        synchronized (this) {
+            since = latestVersion;
+        }
+        if (lastEventID != null) {
+            long version = parseEventID(lastEventID);
+            if (version >= 0 && version <= since) {
+                since = version;
+            }
+            else { // from another run of the server, or not one of ours
+                subscriber.queue.offer(frame(since, "reset", resetData(since)));
+                resets.increment();
+            }
+        }
+        subscriber.lastQueued = since;
+
+        subscribers.add(subscriber);
+        schedule(subscriber);
+        synchronized (this) {
+            wakeUp = true;
+            notifyAll();
+        }
+    }
+
+    private static String getEventType(Change change){
+        switch (change) {
+            case ADDED:
+                return "task_created";
+            case REMOVED:
+                return "task_removed";
+            case COMPLETED:
+                return "task_completed";
+            case CLAIMED:
+                return "task_claimed";
+            case DEPENDENCY_ADDED:
+                return "dependency_added";
+            default:
+                return "dependency_removed";
+        }
+    }
+
+    // the version in an event ID from this stream, or -1
+    private long parseEventID(String eventID){
+        String prefix = streamID + ":";
+        if (!eventID.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(eventID.substring(prefix.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private byte[] frame(long version, String type, String data){
+        String frame = "id: " + streamID + ":" + version + "\nevent: " + type + "\ndata: " + data + "\n\n";
+        return frame.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String resetData(long version){
+        JSONObject data = new JSONObject();
+        data.put("version", version);
+        return data.toString();
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~DISPATCHER~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // waits for events or new subscribers and queues whatever each subscriber hasn't had yet. it never writes to
+    // a client itself, so it can't be held up by one; it also drops subscribers whose writes have timed out
+    private void dispatch(){
+        long checkInterval = Math.max(writeTimeoutNanos / 4, TimeUnit.MILLISECONDS.toNanos(1));
+        long nextHeartbeat = System.nanoTime() + HEARTBEAT_NANOS;
+        long nextCheck = System.nanoTime() + checkInterval;
+
+        while (running) {
+            long upTo;
+            synchronized (this) {
+                long wait = Math.min(nextHeartbeat, nextCheck) - System.nanoTime();
+                while (!wakeUp && running && wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    wait = Math.min(nextHeartbeat, nextCheck) - System.nanoTime();
+                }
+                wakeUp = false;
+                upTo = latestVersion;
+            }
+
+            long now = System.nanoTime();
+            boolean heartbeat = now >= nextHeartbeat;
+            if (heartbeat) {
+                nextHeartbeat = now + HEARTBEAT_NANOS;
+            }
+            for (Subscriber subscriber : subscribers) {
+                queueUpTo(subscriber, upTo, heartbeat);
+            }
+            if (now >= nextCheck) {
+                evictStalled(now);
+                nextCheck = now + checkInterval;
+            }
+        }
+    }
+
+    private void queueUpTo(Subscriber subscriber, long upTo, boolean heartbeat){
+        boolean queued = false;
+
+        for (long version = subscriber.lastQueued + 1; version <= upTo; version++) {
+            byte[] frame = getFrame(version);
+            // the ring has moved past it, or the client isn't keeping up, so what it has waiting is no use to it:
+            // it should start again from what's in the database now
+            if (frame == null || !subscriber.queue.offer(frame)) {
+                subscriber.queue.clear();
+                subscriber.queue.offer(frame(upTo, "reset", resetData(upTo)));
+                resets.increment();
+                break;
+            }
+            queued = true;
+        }
+        subscriber.lastQueued = upTo;
+
+        if (heartbeat && !queued) {
+            subscriber.queue.offer(HEARTBEAT);
+        }
+        schedule(subscriber);
+    }
+
+    // drops subscribers that have been stuck on a write for longer than the timeout, and sizes the writer pool
+    // so stuck writes don't take writers away from everyone else
+    private void evictStalled(long now){
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isWritingSince(now - writeTimeoutNanos)) {
+                stalled.add(subscriber);
+                remove(subscriber);
+                evictions.increment();
+            }
+        }
+
+        int stuck = 0;
+        for (Subscriber subscriber : stalled) {
+            if (subscriber.writing) {
+                stuck++;
+            }
+        }
+        int size = WRITER_THREADS + stuck;
+        if (size > writers.getMaximumPoolSize()) {
+            writers.setMaximumPoolSize(size);
+            writers.setCorePoolSize(size);
+        }
+        else if (size < writers.getMaximumPoolSize()) {
+            writers.setCorePoolSize(size);
+            writers.setMaximumPoolSize(size);
+        }
+    }
+
+    // takes a subscriber out of the feed and frees its slot; its writer closes the connection
+    private void remove(Subscriber subscriber){
+        if (subscribers.remove(subscriber)) {
+            subscriber.removed = true;
+            subscriber.queue.clear();
+            subscriberCount.decrementAndGet();
+            schedule(subscriber);
+        }
+    }
+
+    // has a writer drain the subscriber's queue, unless one already is
+    private void schedule(Subscriber subscriber){
+        if ((subscriber.removed || !subscriber.queue.isEmpty()) && subscriber.scheduled.compareAndSet(false, true)) {
+            writers.execute(subscriber);
+        }
+    }
+
+    // the frame for a version, or null if the ring has moved past it
+    private synchronized byte[] getFrame(long version){
+        if (version <= latestVersion - frames.length) {
+            return null;
+        }
+        return frames[(int) (version % frames.length)];
+    }
+
+    // stops the dispatcher and disconnects every subscriber
+    void close(){
+        running = false;
+        dispatcher.interrupt();
+        for (Subscriber subscriber : subscribers) {
+            remove(subscriber);
+        }
+        writers.shutdown(); // after the connections it was asked to close
+    }
+
+    void registerMetrics(Metrics metrics){
+        metrics.gauge("shelves_change_feed_subscribers", "Clients connected to /changes", subscribers::size);
+        metrics.counter("shelves_change_feed_events_total", "Changes published to /changes", events::sum);
+        metrics.counter("shelves_change_feed_resets_total", "Subscribers told to fetch the tasks again",
+                resets::sum);
+        metrics.counter("shelves_change_feed_evictions_total", "Subscribers dropped for a write that timed out",
+                evictions::sum);
+    }
+
+    int getSubscriberCount() { return subscribers.size(); }
+    long getResetCount() { return resets.sum(); }
+    long getEvictionCount() { return evictions.sum(); }
+
+    // a connected client. the dispatcher adds to its queue; a writer thread, one at a time, writes it out
+    private class Subscriber implements Runnable {
+
+        private final OutputStream out;
+        private final Closeable connection;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(queueSize);
+        private final AtomicBoolean scheduled = new AtomicBoolean(); // whether a writer has it, or will soon
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private long lastQueued; // only used by the dispatcher, and add() before it's in subscribers
+        private volatile boolean removed = false;
+        private volatile boolean writing = false;
+        private volatile long writeStarted;
+
+        Subscriber(OutputStream out, Closeable connection){
+            this.out = out;
+            this.connection = connection;
+        }
+
+        boolean isWritingSince(long time){
+            return writing && writeStarted - time < 0;
+        }
+
+        @Override
+        public void run(){
+            try {
+                do {
+                    byte[] frame = removed ? null : queue.poll();
+                    if (frame != null) {
+                        startWriting();
+                        try {
+                            do {
+                                out.write(frame);
+                            } while (!removed && (frame = queue.poll()) != null);
+                            out.flush();
+                        }
+                        finally {
+                            writing = false;
+                        }
+                    }
+                    scheduled.set(false);
+                } while (!removed && !queue.isEmpty() && scheduled.compareAndSet(false, true));
+            }
+            catch (IOException e) { // the client has gone
+                remove(this);
+            }
+
+            if (removed && closed.compareAndSet(false, true)) {
+                startWriting(); // closing sends the end of the chunked response, so it can get stuck the same way
+                try {
+                    connection.close();
+                }
+                catch (IOException e) {
+                    // it's being dropped either way
+                }
+                finally {
+                    writing = false;
+                    stalled.remove(this);
+                }
+            }
+        }
+
+        private void startWriting(){
+            writeStarted = System.nanoTime();
+            writing = true;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import org.json.JSONObject;
+import org.sqlite.SQLiteConfig;
+import java.sql.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// a fixed-size pool of long-lived SQLite connections; each connection keeps its own prepared statements
+// so the same SQL is only ever parsed once per connection
+class ConnectionPool implements AutoCloseable {
+
+    static final int DEFAULT_SIZE = 4;
+    private static final int BUSY_TIMEOUT_MILLIS = 5000; // how long SQLite retries when another connection holds the lock
+    private static final long BORROW_TIMEOUT_MILLIS = 10000; // how long a caller waits for a free connection
+
+    private final String database_URL;
+    private final int size;
+    private final BlockingQueue<PooledConnection> idleConnections;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger borrowedConnections = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean closed = false;
+
+    private final Set<String> preparedSQL = ConcurrentHashMap.newKeySet(); // every statement any connection has prepared
+
+    ConnectionPool(String url, int size){
+        if (size < 1){
+            throw new IllegalArgumentException("Connection pool size must be at least 1");
+        }
+        this.database_URL = url;
+        this.size = size;
+        this.idleConnections = new ArrayBlockingQueue<>(size);
+    }
+
+    // hands out an idle connection, opening a new one if the pool hasn't reached its size yet, otherwise waits
+    PooledConnection borrow() throws SQLException {
+        if (closed){
+            throw new SQLException("Connection pool is closed");
+        }
+        PooledConnection connection = idleConnections.poll();
+        long waitNanos = 0;
+
+        if (connection == null){
+            connection = tryOpen();
+        }
+        if (connection == null){ // every connection is in use, so wait for one to be returned
+            long start = System.nanoTime();
+            try {
+                connection = idleConnections.poll(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            if (connection == null){
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+            waitNanos = System.nanoTime() - start;
+        }
+
+        recordWait(waitNanos);
+        borrowedConnections.incrementAndGet();
+        return connection;
+    }
+
+    // puts a connection back in the idle queue; called by PooledConnection.close()
+    private void release(PooledConnection connection){
+        borrowedConnections.decrementAndGet();
+        connection.rollbackIfOpen();
+
+        if (closed){
+            connection.closeQuietly();
+            return;
+        }
+        idleConnections.offer(connection);
+    }
+
+    // opens a new connection if the pool still has room for one, returns null otherwise
+    private PooledConnection tryOpen() throws SQLException {
+        int open;
+        do {
+            open = openConnections.get();
+            if (open >= size){
+                return null;
+            }
+        } while (!openConnections.compareAndSet(open, open + 1));
+
+        try {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL); // readers don't block the writer and vice versa
+            config.setBusyTimeout(Integer.toString(BUSY_TIMEOUT_MILLIS));
+            config.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE); // writers take the lock up front
+            return new PooledConnection(config.createConnection(database_URL));
+        }
+        catch (SQLException e){
+            openConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void recordWait(long waitNanos){
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        } while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos));
+    }
+
+    Stats getStats(){
+        return new Stats(size, openConnections.get(), borrowedConnections.get(), idleConnections.size(),
+                borrowCount.get(), totalWaitNanos.get(), maxWaitNanos.get());
+    }
+
+    // the SQL of every statement prepared on any connection since the pool was made
+    Set<String> getPreparedSQL(){
+        return Collections.unmodifiableSet(preparedSQL);
+    }
+
+    // closes every idle connection; connections that are currently borrowed are closed when they are returned
+    @Override
+    public void close(){
+        closed = true;
+
+        PooledConnection connection;
+        while ((connection = idleConnections.poll()) != null){
+            connection.closeQuietly();
+        }
+    }
+
+    // a connection checked out of the pool; closing it returns it to the pool rather than closing it
+    class PooledConnection implements AutoCloseable {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statementCache = new HashMap<>();
+
+        private PooledConnection(Connection connection){
+            this.connection = connection;
+        }
+
+        // returns the cached statement for this SQL, preparing it the first time it is used on this connection
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement preparedStatement = statementCache.get(sql);
+
+            if (preparedStatement == null){
+                preparedStatement = connection.prepareStatement(sql);
+                statementCache.put(sql, preparedStatement);
+                preparedSQL.add(sql);
+            }
+            else {
+                preparedStatement.clearParameters();
+            }
+            return preparedStatement;
+        }
+
+        Connection getConnection(){
+            return connection;
+        }
+
+        // starts a transaction; it takes SQLite's write lock immediately, so it can't fail halfway with SQLITE_BUSY
+        void begin() throws SQLException {
+            connection.setAutoCommit(false);
+        }
+
+        void commit() throws SQLException {
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+
+        // a connection returned in the middle of a transaction, say because a statement threw, is rolled back
+        // so the next borrower starts clean
+        private void rollbackIfOpen(){
+            try {
+                if (!connection.getAutoCommit()){
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            }
+            catch (SQLException e){
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void close(){
+            release(this);
+        }
+
+        private void closeQuietly(){
+            openConnections.decrementAndGet();
+            try {
+                for (PreparedStatement preparedStatement : statementCache.values()){
+                    preparedStatement.close();
+                }
+                statementCache.clear();
+                connection.close();
+            }
+            catch (SQLException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // a snapshot of the pool's counters for monitoring
+    static class Stats {
+
+        private final int size;
+        private final int open;
+        private final int borrowed;
+        private final int idle;
+        private final long borrowCount;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        private Stats(int size, int open, int borrowed, int idle, long borrowCount, long totalWaitNanos, long maxWaitNanos){
+            this.size = size;
+            this.open = open;
+            this.borrowed = borrowed;
+            this.idle = idle;
+            this.borrowCount = borrowCount;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        public int getSize() { return size; }
+        public int getOpen() { return open; }
+        public int getBorrowed() { return borrowed; }
+        public int getIdle() { return idle; }
+        public long getBorrowCount() { return borrowCount; }
+        public long getTotalWaitNanos() { return totalWaitNanos; }
+        public long getMaxWaitNanos() { return maxWaitNanos; }
+
+        public JSONObject toJSON(){
+            JSONObject json = new JSONObject();
+
+            json.put("size", size);
+            json.put("open", open);
+            json.put("borrowed", borrowed);
+            json.put("idle", idle);
+            json.put("borrow_count", borrowCount);
+            json.put("total_wait_micros", TimeUnit.NANOSECONDS.toMicros(totalWaitNanos));
+            json.put("max_wait_micros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos));
+
+            return json;
+        }
+    }
+}
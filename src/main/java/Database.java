@@ -1,17 +1,126 @@
+import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Database {
 
-    private final String database_URL;
+    // columns selected for every Task; dependencies and dependents come from the in-memory graph
+    private static final String TASK_COLUMNS = "ID, taskName, description, requirements, dateCreated, dateDue, " +
+            "dateComplete, isComplete, isClaimed, claimedByEmail";
+
+    private static final String CREATE_SEARCH_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS TaskSearchInsert " +
+            "AFTER INSERT ON Tasks WHEN NOT EXISTS (SELECT 1 FROM SearchIndexPaused) BEGIN " +
+            "INSERT INTO TaskSearch (rowid, taskName, description, requirements) " +
+            "VALUES (new.ID, new.taskName, new.description, new.requirements); END";
+
+    private static final String INSERT_TASK = "INSERT INTO Tasks " +
+            "(ID, taskName, description, requirements, dateCreated, dateDue, isComplete, claimedByEmail, " +
+            "dependencies, dependents, version) VALUES (?,?,?,?,?,?,?,'',?,?,?)";
+    // marks a task whose JSON changed because of a change to another task, such as a new edge to it
+    private static final String UPDATE_VERSION = "UPDATE Tasks SET version = ? WHERE ID == ?";
+    // only adds the edge if both tasks exist
+    private static final String INSERT_DEPENDENCY = "INSERT OR IGNORE INTO Dependencies (dependent_id, dependency_id) " +
+            "SELECT ?, ? WHERE EXISTS (SELECT 1 FROM Tasks WHERE ID == ?) " +
+            "AND EXISTS (SELECT 1 FROM Tasks WHERE ID == ?)";
+
+    // pages of task lists are keyed on ID: each page starts after the last ID of the one before
+    private static final String ALL_TASKS_PAGE = "SELECT " + TASK_COLUMNS + " FROM Tasks " +
+            "WHERE ID > ? ORDER BY ID LIMIT ?";
+    private static final String COMPLETE_TASKS_PAGE = "SELECT " + TASK_COLUMNS + " FROM Tasks " +
+            "WHERE isComplete == 1 AND ID > ? ORDER BY ID LIMIT ?";
+    private static final String INCOMPLETE_TASKS_PAGE = "SELECT " + TASK_COLUMNS + " FROM Tasks " +
+            "WHERE isComplete == 0 AND ID > ? ORDER BY ID LIMIT ?";
+    private static final String CHANGED_TASKS = "SELECT " + TASK_COLUMNS + " FROM Tasks " +
+            "WHERE version > ? ORDER BY version";
+    // a page of ready tasks, whose IDs come from the dependency graph, bound as one JSON array
+    private static final String TASKS_IN_ORDER = "SELECT " + TASK_COLUMNS + " FROM Tasks " +
+            "WHERE ID IN (SELECT value FROM json_each(?)) ORDER BY ID";
+
+    // the only statements allowed to read all of a table that grows with the tasks; checkQueryPlans
+    // reports any other that does
+    private static final String ALL_TASKS = "SELECT " + TASK_COLUMNS + " FROM Tasks";
+    private static final String COUNT_TASKS = "SELECT COUNT() FROM Tasks";
+    private static final String SEARCH_TASK_NAMES = "SELECT " + TASK_COLUMNS + " FROM Tasks WHERE taskName LIKE ?";
+    private static final Set<String> FULL_SCANS = Set.of(ALL_TASKS, COUNT_TASKS, SEARCH_TASK_NAMES);
+    private static final Set<String> GROWING_TABLES = Set.of("Tasks", "Dependencies", "RemovedTasks");
+    // statements that would still work without their index, by reading every row after the cursor instead
+    private static final Map<String, String> REQUIRED_INDEXES = Map.of(
+            COMPLETE_TASKS_PAGE, "CompleteTasks",
+            INCOMPLETE_TASKS_PAGE, "IncompleteTasks",
+            CHANGED_TASKS, "TasksByVersion");
+
+    static final int SEARCH_RESULT_LIMIT = 500; // search is run as the user types, so only the best matches are sent
+
+    static final int FIRST_PAGE = Integer.MIN_VALUE; // afterID for a page that starts at the lowest ID
+    static final int NO_LIMIT = -1; // SQLite treats a negative LIMIT as no limit
+    private static final int[] NO_IDS = {};
+
+    private final ConnectionPool pool;
+    private final DependencyGraph graph = new DependencyGraph();
+
+    // SQLite only allows one writer at a time anyway; holding this while writing keeps the graph's
+    // updates in the same order as the database's. every method that holds it writes in a single
+    // statement or a single transaction, so each logical change is one commit
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // bumped after every write that changes something, once it's committed; RequestHandler builds ETags from it,
+    // so anything read after reading the version is at least as new as that version
+    private final AtomicLong dataVersion = new AtomicLong();
+    private final List<DatabaseListener> listeners = new CopyOnWriteArrayList<>();
+
+    // time spent in each method, reported on /metrics
+    private final Metrics metrics = new Metrics("shelves_db_operation", "operation",
+            "Time spent in a Database method, by operation");
+    private final Metrics.Operation searchMetrics = metrics.register("search");
+    private final Metrics.Operation searchTaskNamesMetrics = metrics.register("search_task_names");
+    private final Metrics.Operation getTaskMetrics = metrics.register("get_task");
+    private final Metrics.Operation getAllTasksMetrics = metrics.register("get_all_tasks");
+    private final Metrics.Operation getCompleteTasksMetrics = metrics.register("get_complete_tasks");
+    private final Metrics.Operation getIncompleteTasksMetrics = metrics.register("get_incomplete_tasks");
+    private final Metrics.Operation getTasksMetrics = metrics.register("get_tasks");
+    private final Metrics.Operation getDependencyTasksMetrics = metrics.register("get_dependency_tasks");
+    private final Metrics.Operation getDependentTasksMetrics = metrics.register("get_dependent_tasks");
+    private final Metrics.Operation getDependenciesMetrics = metrics.register("get_dependencies");
+    private final Metrics.Operation getDependentsMetrics = metrics.register("get_dependents");
+    private final Metrics.Operation getAllDependenciesMetrics = metrics.register("get_all_dependencies");
+    private final Metrics.Operation getTopologicalOrderMetrics = metrics.register("get_topological_order");
+    private final Metrics.Operation getCriticalPathMetrics = metrics.register("get_critical_path");
+    private final Metrics.Operation getDatabaseCountMetrics = metrics.register("get_database_count");
+    private final Metrics.Operation addTaskMetrics = metrics.register("add_task");
+    private final Metrics.Operation addDependencyMetrics = metrics.register("add_dependency");
+    private final Metrics.Operation addTasksMetrics = metrics.register("add_tasks");
+    private final Metrics.Operation removeTaskMetrics = metrics.register("remove_task");
+    private final Metrics.Operation removeDependencyMetrics = metrics.register("remove_dependency");
+    private final Metrics.Operation completeTaskMetrics = metrics.register("complete_task");
+    private final Metrics.Operation updateClaimMetrics = metrics.register("update_claim");
+    private final Metrics.Operation streamAllTasksMetrics = metrics.register("stream_all_tasks");
+    private final Metrics.Operation streamCompleteTasksMetrics = metrics.register("stream_complete_tasks");
+    private final Metrics.Operation streamIncompleteTasksMetrics = metrics.register("stream_incomplete_tasks");
+    private final Metrics.Operation streamReadyTasksMetrics = metrics.register("stream_ready_tasks");
+    private final Metrics.Operation streamChangedTasksMetrics = metrics.register("stream_changed_tasks");
+    private final Metrics.Operation getRemovedTaskIDsMetrics = metrics.register("get_removed_task_ids");
 
     Database(String url){
-        database_URL = url;
+        this(url, ConnectionPool.DEFAULT_SIZE);
+    }
+
+    Database(String url, int poolSize){
+        pool = new ConnectionPool(url, poolSize);
 
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            Statement statement = connection.createStatement();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            Statement statement = connection.getConnection().createStatement();
 
             String createTable = "CREATE TABLE IF NOT EXISTS Tasks (" +
                                     "ID INTEGER PRIMARY KEY, " +
@@ -24,251 +133,1072 @@ public class Database {
                                     "isComplete INT CHECK ( isComplete == 1 or isComplete == 0 )," + // 0: false, 1: true
                                     "isClaimed INT CHECK ( isClaimed == 1 or isClaimed == 0 )," +
                                     "claimedByEmail TEXT," + // email address for person who has claimed the task
-                                    "dependencies TEXT," +
-                                    "dependents TEXT)";
+                                    "dependencies TEXT," + // no longer used; edges live in the Dependencies table
+                                    "dependents TEXT)"; // addRowVersions adds a version column
             statement.execute(createTable);
+
+            // one row per edge; the primary key answers "what does this task depend on",
+            // the index answers "what depends on this task"
+            String createDependenciesTable = "CREATE TABLE IF NOT EXISTS Dependencies (" +
+                                    "dependent_id INTEGER NOT NULL, " + // the task that relies on another
+                                    "dependency_id INTEGER NOT NULL, " + // the task it relies on
+                                    "PRIMARY KEY (dependent_id, dependency_id)) WITHOUT ROWID";
+            statement.execute(createDependenciesTable);
+
+            String createDependentsIndex = "CREATE INDEX IF NOT EXISTS DependentsByDependency " +
+                                    "ON Dependencies (dependency_id, dependent_id)";
+            statement.execute(createDependentsIndex);
+
+            // full-text index over the searchable columns; it reads its text from Tasks and triggers keep it current
+            String createSearchTable = "CREATE VIRTUAL TABLE IF NOT EXISTS TaskSearch USING fts5(" +
+                                    "taskName, description, requirements, content='Tasks', content_rowid='ID')";
+            statement.execute(createSearchTable);
+
+            // holds a row only inside an addTasks transaction, which indexes its tasks in one statement instead;
+            // FTS5 inserts made one row at a time from the trigger cost ten times as much as the row itself
+            String createSearchPausedTable = "CREATE TABLE IF NOT EXISTS SearchIndexPaused (paused INTEGER)";
+            statement.execute(createSearchPausedTable);
+
+            statement.execute(CREATE_SEARCH_INSERT_TRIGGER);
+
+            String createSearchDeleteTrigger = "CREATE TRIGGER IF NOT EXISTS TaskSearchDelete AFTER DELETE ON Tasks BEGIN " +
+                                    "INSERT INTO TaskSearch (TaskSearch, rowid, taskName, description, requirements) " +
+                                    "VALUES ('delete', old.ID, old.taskName, old.description, old.requirements); END";
+            statement.execute(createSearchDeleteTrigger);
+
+            // only fires for the indexed columns, so completing or claiming a task doesn't touch the index
+            String createSearchUpdateTrigger = "CREATE TRIGGER IF NOT EXISTS TaskSearchUpdate " +
+                                    "AFTER UPDATE OF taskName, description, requirements ON Tasks BEGIN " +
+                                    "INSERT INTO TaskSearch (TaskSearch, rowid, taskName, description, requirements) " +
+                                    "VALUES ('delete', old.ID, old.taskName, old.description, old.requirements); " +
+                                    "INSERT INTO TaskSearch (rowid, taskName, description, requirements) " +
+                                    "VALUES (new.ID, new.taskName, new.description, new.requirements); END";
+            statement.execute(createSearchUpdateTrigger);
+
+            // one row per removed task, so clients syncing changes since a version learn about removals too.
+            // the version is the key, since a change removes at most one task
+            String createRemovedTasksTable = "CREATE TABLE IF NOT EXISTS RemovedTasks (" +
+                                    "version INTEGER PRIMARY KEY, " +
+                                    "ID INTEGER NOT NULL)";
+            statement.execute(createRemovedTasksTable);
+            statement.close();
+
+            migrate(connection.getConnection());
+            loadDependencyGraph(connection.getConnection());
+            loadDataVersion(connection.getConnection());
         }
         catch (SQLException e){
-            e.printStackTrace();
+            // without the migrations, the graph and the data version, reads and writes would give wrong answers
+            // rather than fail, so the database isn't served at all
+            pool.close();
+            throw new IllegalStateException("Couldn't open the tasks database at " + url, e);
         }
     }
 
+    // runs the migrations a database hasn't had yet, oldest first. PRAGMA user_version counts the ones it has
+    // had; each runs in a transaction with the user_version that records it, so a failure leaves the database
+    // as it was before that migration, and the next start tries it again.
+    // addClaimColumns went in ahead of addTaskIndexes, which indexes its columns, after addTaskIndexes had
+    // shipped as the fifth; a database that already ran that one runs it again as the sixth, which changes nothing
+    private void migrate(Connection connection) throws SQLException {
+        List<Migration> migrations = List.of(this::migrateDependencyColumns, this::buildSearchIndex,
+                this::replaceSearchInsertTrigger, this::addRowVersions, this::addClaimColumns, this::addTaskIndexes);
+
+        try (Statement statement = connection.createStatement()) {
+            int userVersion;
+            try (ResultSet version = statement.executeQuery("PRAGMA user_version")) {
+                userVersion = version.getInt(1);
+            }
+
+            for (int i = userVersion; i < migrations.size(); i++) {
+                connection.setAutoCommit(false);
+                try {
+                    migrations.get(i).migrate(connection, statement);
+                    statement.execute("PRAGMA user_version = " + (i + 1));
+                    connection.commit();
+                }
+                catch (SQLException e){
+                    connection.rollback();
+                    throw e;
+                }
+                finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    // one change to the schema; the list in migrate() is in the order they were written, and only grows at the
+    // end unless a step is safe to run again, as addTaskIndexes is
+    private interface Migration {
+        void migrate(Connection connection, Statement statement) throws SQLException;
+    }
+
+    // databases created before the Dependencies table existed store edges as asterisk-separated IDs in the
+    // dependencies and dependents columns of Tasks; move them into the Dependencies table
+    private void migrateDependencyColumns(Connection connection, Statement statement) throws SQLException {
+        String selectEdges = "SELECT ID, dependencies, dependents FROM Tasks " +
+                "WHERE dependencies != '' OR dependents != ''";
+        String insertEdge = "INSERT OR IGNORE INTO Dependencies (dependent_id, dependency_id) VALUES (?,?)";
+
+        try (ResultSet results = statement.executeQuery(selectEdges);
+             PreparedStatement prepareInsertEdge = connection.prepareStatement(insertEdge)) {
+            while (results.next()){
+                String ID = Integer.toString(results.getInt("ID"));
+
+                // both sides of an edge were stored, so take it from either one
+                for (String dependency : convertStringToList(results.getString("dependencies"))){
+                    addEdgeToBatch(prepareInsertEdge, ID, dependency);
+                }
+                for (String dependent : convertStringToList(results.getString("dependents"))){
+                    addEdgeToBatch(prepareInsertEdge, dependent, ID);
+                }
+            }
+            prepareInsertEdge.executeBatch();
+        }
+
+        statement.executeUpdate("UPDATE Tasks SET dependencies = '', dependents = ''");
+    }
+
+    // tasks written before the search index existed aren't in it yet, so index the whole table
+    private void buildSearchIndex(Connection connection, Statement statement) throws SQLException {
+        statement.execute("INSERT INTO TaskSearch (TaskSearch) VALUES ('rebuild')");
+    }
+
+    // databases from before addTasks have an insert trigger that can't be paused
+    private void replaceSearchInsertTrigger(Connection connection, Statement statement) throws SQLException {
+        statement.execute("DROP TRIGGER IF EXISTS TaskSearchInsert");
+        statement.execute(CREATE_SEARCH_INSERT_TRIGGER);
+    }
+
+    // each task records the data version of the last change to it, so streamChangedTasks can find what changed
+    // after a version with the index instead of reading the table. tasks from before this get version 1
+    private void addRowVersions(Connection connection, Statement statement) throws SQLException {
+        boolean hasVersionColumn = false; // the user_version may have been set back by hand
+        try (ResultSet columns = statement.executeQuery("PRAGMA table_info(Tasks)")) {
+            while (columns.next()) {
+                hasVersionColumn |= columns.getString("name").equals("version");
+            }
+        }
+
+        if (!hasVersionColumn) {
+            statement.execute("ALTER TABLE Tasks ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+            statement.executeUpdate("UPDATE Tasks SET version = 1");
+        }
+        statement.execute("CREATE INDEX IF NOT EXISTS TasksByVersion ON Tasks (version)");
+    }
+
+    // databases from before tasks could be claimed have neither claim column, and ones from before isClaimed
+    // have only the email; a task with an email in them was claimed
+    private void addClaimColumns(Connection connection, Statement statement) throws SQLException {
+        boolean hasIsClaimed = false;
+        boolean hasClaimedByEmail = false;
+        try (ResultSet columns = statement.executeQuery("PRAGMA table_info(Tasks)")) {
+            while (columns.next()) {
+                hasIsClaimed |= columns.getString("name").equals("isClaimed");
+                hasClaimedByEmail |= columns.getString("name").equals("claimedByEmail");
+            }
+        }
+
+        if (!hasClaimedByEmail) {
+            statement.execute("ALTER TABLE Tasks ADD COLUMN claimedByEmail TEXT");
+        }
+        if (!hasIsClaimed) {
+            statement.execute("ALTER TABLE Tasks ADD COLUMN isClaimed INT CHECK ( isClaimed == 1 or isClaimed == 0 )");
+            statement.executeUpdate("UPDATE Tasks SET isClaimed = 1 WHERE claimedByEmail != ''");
+        }
+    }
+
+    // the complete and incomplete lists each get a partial index, holding only their own tasks in ID order, so
+    // a page of either reads just the rows it returns. due dates and claimants only matter for tasks still
+    // being worked on, so they're indexed the same way. the WHERE clauses must match the queries' exactly for
+    // SQLite to use them; testQueryPlans checks that it does
+    private void addTaskIndexes(Connection connection, Statement statement) throws SQLException {
+        statement.execute("CREATE INDEX IF NOT EXISTS IncompleteTasks ON Tasks (ID) WHERE isComplete == 0");
+        statement.execute("CREATE INDEX IF NOT EXISTS CompleteTasks ON Tasks (ID) WHERE isComplete == 1");
+        statement.execute("CREATE INDEX IF NOT EXISTS IncompleteTasksByDateDue ON Tasks (dateDue) " +
+                "WHERE isComplete == 0");
+        statement.execute("CREATE INDEX IF NOT EXISTS ClaimedTasksByEmail ON Tasks (claimedByEmail) " +
+                "WHERE isClaimed == 1");
+    }
+
+    // carries the data version on from where the last run left it: the newest version on a task or tombstone.
+    // nextVersion counts on it, so the constructor fails without it rather than reusing a tombstone's key
+    private void loadDataVersion(Connection connection) throws SQLException {
+        String selectVersion = "SELECT MAX(IFNULL((SELECT MAX(version) FROM Tasks), 0), " +
+                "IFNULL((SELECT MAX(version) FROM RemovedTasks), 0))";
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery(selectVersion)) {
+            dataVersion.set(results.getLong(1));
+        }
+    }
+
+    // read every task ID and every edge into the in-memory graph
+    private void loadDependencyGraph(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet results = statement.executeQuery("SELECT ID, isComplete FROM Tasks")) {
+                while (results.next()){
+                    graph.addTask(results.getInt(1));
+                    if (results.getInt(2) == 1) {
+                        graph.completeTask(results.getInt(1)); // before the edges, so they're counted right
+                    }
+                }
+            }
+            try (ResultSet results = statement.executeQuery("SELECT dependent_id, dependency_id FROM Dependencies")) {
+                while (results.next()){
+                    graph.addDependency(results.getInt(1), results.getInt(2));
+                }
+            }
+        }
+        graph.buildOrder(); // once everything's loaded, rather than keeping it in order edge by edge
+    }
+
+    private void addEdgeToBatch(PreparedStatement prepareInsertEdge, String dependentID, String dependencyID)
+            throws SQLException {
+        prepareInsertEdge.setInt(1, Integer.parseInt(dependentID));
+        prepareInsertEdge.setInt(2, Integer.parseInt(dependencyID));
+        prepareInsertEdge.addBatch();
+    }
+
     /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~GET METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
 
-    // search for all tasks whose names contain query
+    // search task names, descriptions and requirements for query, returning the SEARCH_RESULT_LIMIT best
+    // matches, best first. the words of query must appear together and in order, ignoring case and accents, and
+    // the last one may be the start of a word, so results narrow as the user types. words are only matched from
+    // their start: unlike the substring search on names this replaced, "ask" doesn't find "Task". a query with
+    // no letters or digits, which the index can't look up, still finds every name that contains it
     public List<Task> search(String query){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String searchQuery = "SELECT * FROM Tasks WHERE taskName LIKE ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(searchQuery);
+        String matchQuery = makeMatchQuery(query);
+        if (matchQuery == null){ // nothing the index can look up, like a query that's all punctuation
+            return searchTaskNames(query);
+        }
 
-            preparedStatement.setString(1, "%" + query + "%"); // "%" means "any # of any character
-            ResultSet results = preparedStatement.executeQuery();
+        long start = searchMetrics.begin();
+
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            // names count for the most when ranking, then descriptions, then requirements
+            String searchQuery = "SELECT " + TASK_COLUMNS + " FROM Tasks JOIN (" +
+                    "SELECT rowid AS matchID, bm25(TaskSearch, 10.0, 2.0, 1.0) AS rank " +
+                    "FROM TaskSearch WHERE TaskSearch MATCH ? ORDER BY rank LIMIT ?) ON ID == matchID ORDER BY rank";
+            PreparedStatement preparedStatement = connection.prepare(searchQuery);
+
+            preparedStatement.setString(1, matchQuery);
+            preparedStatement.setInt(2, SEARCH_RESULT_LIMIT);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return parseResultSet(results);
+            }
+        }
+        catch (SQLException e){
+            searchMetrics.error();
+            e.printStackTrace();
+        }
+        finally {
+            searchMetrics.end(start);
+        }
+        return null;
+    }
+
+    // search for all tasks whose names contain query, without the index
+    private List<Task> searchTaskNames(String query){
+        long start = searchTaskNamesMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            PreparedStatement preparedStatement = connection.prepare(SEARCH_TASK_NAMES);
 
-            return parseResultSet(results);
+            preparedStatement.setString(1, "%" + query + "%"); // "%" means "any # of any character
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return parseResultSet(results);
+            }
         }
         catch (SQLException e){
+            searchTaskNamesMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            searchTaskNamesMetrics.end(start);
+        }
         return null;
     }
 
     // get task with a specific ID
     public Task getTask(int ID){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String getTaskQuery = "SELECT * FROM Tasks WHERE ID == ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(getTaskQuery);
+        long start = getTaskMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            String getTaskQuery = "SELECT " + TASK_COLUMNS + " FROM Tasks WHERE ID == ?";
+            PreparedStatement preparedStatement = connection.prepare(getTaskQuery);
 
             preparedStatement.setInt(1, ID);
-            ResultSet results = preparedStatement.executeQuery();
-            return makeTask(results);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return makeTask(results);
+            }
         }
         catch (SQLException e){
+            getTaskMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            getTaskMetrics.end(start);
+        }
         return null;
     }
 
     // loads all tasks from the database and returns them as a list of Task objects
     public List<Task> getAllTasks(){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            Statement statement = connection.createStatement();
+        long start = getAllTasksMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            PreparedStatement preparedStatement = connection.prepare(ALL_TASKS);
 
-            String getTasksQuery = "SELECT * FROM Tasks";
-            ResultSet results = statement.executeQuery(getTasksQuery);
-
-            return parseResultSet(results);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return parseResultSet(results);
+            }
         }
         catch (SQLException e){
+            getAllTasksMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            getAllTasksMetrics.end(start);
+        }
         return null;
     }
 
     // loads just complete tasks
     public List<Task> getCompleteTasks(){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            Statement statement = connection.createStatement();
-
-            String getTasksQuery = "SELECT * FROM Tasks WHERE isComplete == 1";
-            ResultSet results = statement.executeQuery(getTasksQuery);
+        long start = getCompleteTasksMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            String getTasksQuery = "SELECT " + TASK_COLUMNS + " FROM Tasks WHERE isComplete == 1 ORDER BY ID";
+            PreparedStatement preparedStatement = connection.prepare(getTasksQuery);
 
-            return parseResultSet(results);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return parseResultSet(results);
+            }
         }
         catch (SQLException e){
+            getCompleteTasksMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            getCompleteTasksMetrics.end(start);
+        }
         return null;
     }
 
     // loads just incomplete tasks
     public List<Task> getIncompleteTasks(){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            Statement statement = connection.createStatement();
-
-            String getTasksQuery = "SELECT * FROM Tasks WHERE isComplete == 0";
-            ResultSet results = statement.executeQuery(getTasksQuery);
+        long start = getIncompleteTasksMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            String getTasksQuery = "SELECT " + TASK_COLUMNS + " FROM Tasks WHERE isComplete == 0 ORDER BY ID";
+            PreparedStatement preparedStatement = connection.prepare(getTasksQuery);
 
-            return parseResultSet(results);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return parseResultSet(results);
+            }
         }
         catch (SQLException e){
+            getIncompleteTasksMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            getIncompleteTasksMetrics.end(start);
+        }
         return null;
     }
 
-    public List<String> getDependencies(int ID){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String selectDependencies = "SELECT dependencies FROM Tasks WHERE ID == ?";
-            PreparedStatement prepareSelectDependencies = connection.prepareStatement(selectDependencies);
-            prepareSelectDependencies.setInt(1, ID);
-            ResultSet selectDependenciesResults = prepareSelectDependencies.executeQuery();
-            return new ArrayList<>(convertStringToList(selectDependenciesResults.getString("dependencies")));
+    // loads up to limit tasks with IDs greater than afterID, in ID order
+    public List<Task> getAllTasks(int afterID, int limit){
+        return getTaskPage(getAllTasksMetrics, ALL_TASKS_PAGE, afterID, limit);
+    }
+
+    // loads a page of complete tasks
+    public List<Task> getCompleteTasks(int afterID, int limit){
+        return getTaskPage(getCompleteTasksMetrics, COMPLETE_TASKS_PAGE, afterID, limit);
+    }
+
+    // loads a page of incomplete tasks
+    public List<Task> getIncompleteTasks(int afterID, int limit){
+        return getTaskPage(getIncompleteTasksMetrics, INCOMPLETE_TASKS_PAGE, afterID, limit);
+    }
+
+    // like getAllTasks, but hands each task to consumer as its row is read instead of collecting them in a list
+    public boolean streamAllTasks(TaskConsumer consumer) throws IOException {
+        return streamAllTasks(FIRST_PAGE, NO_LIMIT, consumer);
+    }
+
+    public boolean streamAllTasks(int afterID, int limit, TaskConsumer consumer) throws IOException {
+        return streamTasks(streamAllTasksMetrics, ALL_TASKS_PAGE, afterID, limit, consumer);
+    }
+
+    // like getCompleteTasks, but streamed
+    public boolean streamCompleteTasks(TaskConsumer consumer) throws IOException {
+        return streamCompleteTasks(FIRST_PAGE, NO_LIMIT, consumer);
+    }
+
+    public boolean streamCompleteTasks(int afterID, int limit, TaskConsumer consumer) throws IOException {
+        return streamTasks(streamCompleteTasksMetrics, COMPLETE_TASKS_PAGE, afterID, limit, consumer);
+    }
+
+    // like getIncompleteTasks, but streamed
+    public boolean streamIncompleteTasks(TaskConsumer consumer) throws IOException {
+        return streamIncompleteTasks(FIRST_PAGE, NO_LIMIT, consumer);
+    }
+
+    public boolean streamIncompleteTasks(int afterID, int limit, TaskConsumer consumer) throws IOException {
+        return streamTasks(streamIncompleteTasksMetrics, INCOMPLETE_TASKS_PAGE, afterID, limit, consumer);
+    }
+
+    // incomplete tasks whose dependencies are all complete, so they can be started now. the graph keeps the set
+    // of them up to date, so only the tasks in the page are read
+    public boolean streamReadyTasks(TaskConsumer consumer) throws IOException {
+        return streamReadyTasks(FIRST_PAGE, NO_LIMIT, consumer);
+    }
+
+    public boolean streamReadyTasks(int afterID, int limit, TaskConsumer consumer) throws IOException {
+        long start = streamReadyTasksMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            PreparedStatement preparedStatement = connection.prepare(TASKS_IN_ORDER);
+
+            preparedStatement.setString(1, Arrays.toString(graph.getReadyTasks(afterID, limit)));
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()){
+                    consumer.accept(makeTask(results));
+                }
+            }
+            return true;
         }
         catch (SQLException e){
+            streamReadyTasksMetrics.error();
             e.printStackTrace();
         }
-        return new ArrayList<>();
+        finally {
+            streamReadyTasksMetrics.end(start);
+        }
+        return false;
     }
 
-    public List<String> getDependents(int ID){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String selectDependents = "SELECT dependents FROM Tasks WHERE ID == ?";
-            PreparedStatement prepareSelectDependents = connection.prepareStatement(selectDependents);
-            prepareSelectDependents.setInt(1, ID);
-            ResultSet selectDependentsResults = prepareSelectDependents.executeQuery();
-            return new ArrayList<>(convertStringToList(selectDependentsResults.getString("dependents")));
+    // passes consumer every task created or changed after the data version `since`, oldest change first
+    public boolean streamChangedTasks(long since, TaskConsumer consumer) throws IOException {
+        long start = streamChangedTasksMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            PreparedStatement preparedStatement = connection.prepare(CHANGED_TASKS);
+
+            preparedStatement.setLong(1, since);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()){
+                    consumer.accept(makeTask(results));
+                }
+            }
+            return true;
         }
         catch (SQLException e){
+            streamChangedTasksMetrics.error();
             e.printStackTrace();
         }
-        return new ArrayList<>();
+        finally {
+            streamChangedTasksMetrics.end(start);
+        }
+        return false;
     }
 
-    public int getDatabaseCount(){
-        try(Connection connection = DriverManager.getConnection(database_URL)){
-            Statement statement = connection.createStatement();
-            String getCount = "SELECT COUNT() FROM (SELECT * FROM Tasks)";
-
-            ResultSet results = statement.executeQuery(getCount);
+    // the IDs of tasks removed after the data version `since`, or null if they couldn't be read. an ID that
+    // has since been given to a new task isn't included, since the new task is among the changed tasks instead
+    public int[] getRemovedTaskIDs(long since){
+        long start = getRemovedTaskIDsMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            String selectRemoved = "SELECT ID FROM RemovedTasks WHERE version > ? " +
+                    "AND NOT EXISTS (SELECT 1 FROM Tasks WHERE Tasks.ID == RemovedTasks.ID) ORDER BY version";
+            PreparedStatement preparedStatement = connection.prepare(selectRemoved);
+
+            preparedStatement.setLong(1, since);
+            List<Integer> IDs = new ArrayList<>();
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()){
+                    IDs.add(results.getInt(1));
+                }
+            }
+            return IDs.stream().mapToInt(Integer::intValue).toArray();
+        }
+        catch (SQLException e){
+            getRemovedTaskIDsMetrics.error();
+            e.printStackTrace();
+        }
+        finally {
+            getRemovedTaskIDsMetrics.end(start);
+        }
+        return null;
+    }
 
-            return results.getInt("Count()");
+    // get every task whose ID is in IDs with a single query, however many IDs there are
+    public List<Task> getTasks(int[] IDs){
+        long start = getTasksMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            // the IDs are bound as one JSON array so the statement is the same for any number of them
+            String getTasksQuery = "SELECT " + TASK_COLUMNS + " FROM Tasks " +
+                    "WHERE ID IN (SELECT value FROM json_each(?))";
+            PreparedStatement preparedStatement = connection.prepare(getTasksQuery);
+
+            preparedStatement.setString(1, Arrays.toString(IDs));
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return parseResultSet(results);
+            }
         }
         catch (SQLException e){
+            getTasksMetrics.error();
             e.printStackTrace();
         }
-        return -1;
+        finally {
+            getTasksMetrics.end(start);
+        }
+        return null;
     }
 
-    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ADD METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+    // get the tasks that a task depends on
+    public List<Task> getDependencyTasks(int ID){
+        long start = getDependencyTasksMetrics.begin();
+        try {
+            return getTasks(graph.getDependencies(ID));
+        }
+        finally {
+            getDependencyTasksMetrics.end(start);
+        }
+    }
 
-    public boolean addTask(Task task){
-        int count = getDatabaseCount();
+    // get the tasks that depend on a task
+    public List<Task> getDependentTasks(int ID){
+        long start = getDependentTasksMetrics.begin();
+        try {
+            return getTasks(graph.getDependents(ID));
+        }
+        finally {
+            getDependentTasksMetrics.end(start);
+        }
+    }
+
+    public List<String> getDependencies(int ID){
+        long start = getDependenciesMetrics.begin();
+        try {
+            return convertIDsToList(graph.getDependencies(ID));
+        }
+        finally {
+            getDependenciesMetrics.end(start);
+        }
+    }
 
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String addTaskUpdate = "INSERT INTO Tasks " +
-                    "(taskName, description, requirements, dateCreated, dateDue, isComplete, claimedByEmail, dependencies, dependents) " +
-                    "VALUES (?,?,?,?,?,?,'',?,?)";
+    public List<String> getDependents(int ID){
+        long start = getDependentsMetrics.begin();
+        try {
+            return convertIDsToList(graph.getDependents(ID));
+        }
+        finally {
+            getDependentsMetrics.end(start);
+        }
+    }
 
-            PreparedStatement preparedStatement = connection.prepareStatement(addTaskUpdate);
+    // IDs of the tasks that a task depends on, answered from memory
+    public int[] getDependencyIDs(int ID){
+        long start = getDependenciesMetrics.begin();
+        try {
+            return graph.getDependencies(ID);
+        }
+        finally {
+            getDependenciesMetrics.end(start);
+        }
+    }
 
-            preparedStatement.setString(1, task.getTaskName());
-            preparedStatement.setString(2, task.getDescription());
-            preparedStatement.setString(3, convertListToString(task.getRequirements()));
-            preparedStatement.setLong(4, task.getDateCreated().getTime());
-            preparedStatement.setLong(5, task.getDateDue().getTime());
+    // IDs of the tasks that depend on a task, answered from memory
+    public int[] getDependentIDs(int ID){
+        long start = getDependentsMetrics.begin();
+        try {
+            return graph.getDependents(ID);
+        }
+        finally {
+            getDependentsMetrics.end(start);
+        }
+    }
 
-            if (task.getComplete()) {
-                preparedStatement.setInt(6, (1));
+    // every task that a task depends on, directly or through other tasks: everything blocking it. they come
+    // in an order they can be done in, each after the tasks it depends on
+    public List<Task> getAllDependencyTasks(int ID){
+        long start = getAllDependenciesMetrics.begin();
+        try {
+            int[] IDs = graph.getAllDependencies(ID);
+            List<Task> tasks = getTasks(IDs);
+            return tasks == null ? null : orderTasks(tasks, IDs);
+        }
+        finally {
+            getAllDependenciesMetrics.end(start);
+        }
+    }
+
+    // the IDs getAllDependencyTasks would return, answered from memory
+    public int[] getAllDependencyIDs(int ID){
+        long start = getAllDependenciesMetrics.begin();
+        try {
+            return graph.getAllDependencies(ID);
+        }
+        finally {
+            getAllDependenciesMetrics.end(start);
+        }
+    }
+
+    // every task ID, each after the IDs of the tasks it depends on, then the IDs of tasks that can't be put in
+    // order because they're in a dependency cycle or depend on one. answered from memory
+    public int[][] getTopologicalOrder(){
+        long start = getTopologicalOrderMetrics.begin();
+        try {
+            return graph.getTopologicalOrder();
+        }
+        finally {
+            getTopologicalOrderMetrics.end(start);
+        }
+    }
+
+    // the chain of unfinished tasks that decides when a task can be finished, starting with the one to do
+    // first and ending with the task itself. each task can't finish before its own due date or before the
+    // dependency that finishes latest, so the chain follows that dependency back at each step, preferring the
+    // longer chain when two finish together. empty if there's no such task, null if the tasks couldn't be read
+    public List<Task> getCriticalPath(int ID){
+        long start = getCriticalPathMetrics.begin();
+        try {
+            int[] dependencyIDs = graph.getAllDependencies(ID);
+            int[] IDs = Arrays.copyOf(dependencyIDs, dependencyIDs.length + 1);
+            IDs[dependencyIDs.length] = ID; // it depends on all of them, so it goes last
+
+            List<Task> tasks = getTasks(IDs);
+            if (tasks == null) {
+                return null;
+            }
+            tasks = orderTasks(tasks, IDs);
+            if (tasks.isEmpty() || tasks.get(tasks.size() - 1).getID() != ID) {
+                return new ArrayList<>();
+            }
+
+            // the tasks are in dependency order, so each one's dependencies have been worked out before it
+            Map<Integer, Integer> positions = new HashMap<>();
+            long[] finish = new long[tasks.size()]; // the latest due date on the chain ending at each task
+            int[] length = new int[tasks.size()];
+            int[] previous = new int[tasks.size()];
+
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                positions.put(task.getID(), i);
+                finish[i] = task.getDateDue();
+                length[i] = 1;
+                previous[i] = -1;
+
+                for (int dependencyID : task.getDependencies()) {
+                    Integer j = positions.get(dependencyID); // null if it's later in a cycle, or was removed
+                    if (j == null || tasks.get(j).getComplete()) {
+                        continue;
+                    }
+                    if (previous[i] < 0 || finish[j] > finish[previous[i]]
+                            || (finish[j] == finish[previous[i]] && length[j] > length[previous[i]])) {
+                        previous[i] = j;
+                    }
+                }
+                if (previous[i] >= 0) {
+                    finish[i] = Math.max(finish[i], finish[previous[i]]);
+                    length[i] = length[previous[i]] + 1;
+                }
             }
-            else {
-                preparedStatement.setInt(6, (0));
+
+            LinkedList<Task> path = new LinkedList<>();
+            for (int i = tasks.size() - 1; i >= 0; i = previous[i]) {
+                path.addFirst(tasks.get(i));
             }
-            preparedStatement.setString(7, "");
-            preparedStatement.setString(8, "");
+            return path;
+        }
+        finally {
+            getCriticalPathMetrics.end(start);
+        }
+    }
 
-            preparedStatement.executeUpdate();
+    public int getDatabaseCount(){
+        long start = getDatabaseCountMetrics.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            PreparedStatement preparedStatement = connection.prepare(COUNT_TASKS);
 
-            for (String dependency : task.getDependencies()) {
-                addDependency(count + 1, Integer.parseInt(dependency));
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return results.getInt("Count()");
             }
+        }
+        catch (SQLException e){
+            getDatabaseCountMetrics.error();
+            e.printStackTrace();
+        }
+        finally {
+            getDatabaseCountMetrics.end(start);
+        }
+        return -1;
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ADD METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // adds a task and its dependencies in one transaction
+    public boolean addTask(Task task){
+        long start = addTaskMetrics.begin();
+        int[] dependencyIDs = new int[task.getDependencies().length];
+        int added = 0;
+
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            connection.begin();
+            long version = nextVersion();
+
+            int ID = insertTask(connection, task, version);
+            for (int dependencyID : task.getDependencies()) {
+                if (insertDependency(connection, ID, dependencyID)) {
+                    dependencyIDs[added++] = dependencyID;
+                }
+            }
+            dependencyIDs = Arrays.copyOf(dependencyIDs, added);
+            markChanged(connection, version, dependencyIDs); // they list the new task as a dependent
+            connection.commit();
+
+            graph.addTask(ID);
+            if (task.getComplete()) {
+                graph.completeTask(ID);
+            }
+            for (int dependencyID : dependencyIDs) {
+                graph.addDependency(ID, dependencyID);
+            }
+            dataChanged(DatabaseListener.Change.ADDED, new int[] {ID}, dependencyIDs);
             return true;
         }
         catch (SQLException e){
+            addTaskMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            writeLock.unlock();
+            addTaskMetrics.end(start);
+        }
         return false;
     }
 
-    // designate that a task depends on another task
+    // designate that a task depends on another task. refused if the dependency already depends on the dependent
+    // task, directly or not, since the edge would close a cycle; findDependencyCycle says which
     public boolean addDependency(int dependentID, int dependencyID){ // dependent task relies on dependency task
-        // get the existing dependencies that the dependent task has
-        List<String> dependencies = getDependencies(dependentID);
+        long start = addDependencyMetrics.begin();
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            if (graph.dependsOn(dependencyID, dependentID)) {
+                return false;
+            }
+            connection.begin();
+            boolean inserted = insertDependency(connection, dependentID, dependencyID);
+            if (inserted) {
+                markChanged(connection, nextVersion(), dependentID, dependencyID);
+            }
+            connection.commit();
 
-        // get the existing dependents that the dependency has
-        List<String> dependents = getDependents(dependencyID);
+            if (inserted){
+                graph.addDependency(dependentID, dependencyID);
+                dataChanged(DatabaseListener.Change.DEPENDENCY_ADDED, new int[] {dependentID, dependencyID}, NO_IDS);
+                return true;
+            }
+        }
+        catch (SQLException e){
+            addDependencyMetrics.error();
+            e.printStackTrace();
+        }
+        finally {
+            writeLock.unlock();
+            addDependencyMetrics.end(start);
+        }
+        return false;
+    }
 
-        if (!dependencies.contains(Integer.toString(dependencyID))) { // check if dependency already exists
-            // add the dependent to the dependency's dependents and the dependency to the dependent's dependencies
-            dependencies.add(Integer.toString(dependencyID));
-            dependents.add(Integer.toString(dependentID));
+    // the cycle adding a dependency would close, as the task IDs around it starting and ending with the dependent
+    // task, or null if there's no such cycle
+    public int[] findDependencyCycle(int dependentID, int dependencyID){
+        int[] path = graph.findDependencyPath(dependencyID, dependentID);
+        if (path == null) {
+            return null;
+        }
+        int[] cycle = new int[path.length + 1];
+        cycle[0] = dependentID;
+        System.arraycopy(path, 0, cycle, 1, path.length);
+        return cycle;
+    }
+
+    // adds many tasks in one transaction, using batched inserts. batchDependencies[i] holds the positions in
+    // tasks of the tasks that tasks.get(i) depends on; each task's own getDependencies() holds IDs of tasks
+    // already in the database. returns the IDs given to the tasks, in order, or null if nothing was added,
+    // which includes when the tasks' dependencies on each other form a cycle
+    public int[] addTasks(List<Task> tasks, int[][] batchDependencies){
+        if (hasCycle(batchDependencies)) {
+            return null; // edges to existing tasks can't close one, since nothing existing depends on new tasks
+        }
+        long start = addTasksMetrics.begin();
+        int[] IDs = new int[tasks.size()];
+        List<int[]> addedDependencies = new ArrayList<>();
+
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            connection.begin();
+
+            // IDs are handed out here rather than by SQLite so that edges between the new tasks can be
+            // batched too; nothing else can insert while this transaction holds the write lock
+            int firstID;
+            try (ResultSet resultSet = connection.prepare("SELECT IFNULL(MAX(ID), 0) + 1 FROM Tasks").executeQuery()) {
+                firstID = resultSet.getInt(1);
+            }
 
-            // update the dependencies column of the dependent task
-            boolean dependencyAdded = updateDependencies(dependentID, dependencies);
+            connection.prepare("INSERT INTO SearchIndexPaused VALUES (1)").executeUpdate();
 
-            // update the dependents column of the dependency task
-            boolean dependentAdded = updateDependents(dependencyID, dependents);
+            long version = nextVersion();
+            PreparedStatement taskStatement = connection.prepare(INSERT_TASK);
+            for (int i = 0; i < tasks.size(); i++) {
+                IDs[i] = firstID + i;
+                taskStatement.setInt(1, IDs[i]);
+                setTaskParameters(taskStatement, tasks.get(i), version);
+                taskStatement.addBatch();
+            }
+            taskStatement.executeBatch();
+
+            String indexTasksUpdate = "INSERT INTO TaskSearch (rowid, taskName, description, requirements) " +
+                    "SELECT ID, taskName, description, requirements FROM Tasks WHERE ID >= ?";
+            PreparedStatement indexStatement = connection.prepare(indexTasksUpdate);
+            indexStatement.setInt(1, firstID);
+            indexStatement.executeUpdate();
+            connection.prepare("DELETE FROM SearchIndexPaused").executeUpdate();
+
+            List<int[]> edges = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                for (int position : batchDependencies[i]) {
+                    edges.add(new int[] {IDs[i], IDs[position]});
+                }
+                for (int dependencyID : tasks.get(i).getDependencies()) {
+                    edges.add(new int[] {IDs[i], dependencyID});
+                }
+            }
 
-            return dependencyAdded && dependentAdded;
+            PreparedStatement dependencyStatement = connection.prepare(INSERT_DEPENDENCY);
+            for (int[] edge : edges) {
+                setDependencyParameters(dependencyStatement, edge[0], edge[1]);
+                dependencyStatement.addBatch();
+            }
+            int[] updateCounts = dependencyStatement.executeBatch();
+            Set<Integer> existingDependencyIDs = new TreeSet<>(); // tasks that were already there and gained dependents
+            for (int i = 0; i < edges.size(); i++) {
+                if (updateCounts[i] == 1) { // 0 if the edge was a duplicate or named a task that doesn't exist
+                    addedDependencies.add(edges.get(i));
+                    if (edges.get(i)[1] < firstID) {
+                        existingDependencyIDs.add(edges.get(i)[1]);
+                    }
+                }
+            }
+            int[] dependencyIDs = existingDependencyIDs.stream().mapToInt(Integer::intValue).toArray();
+            markChanged(connection, version, dependencyIDs);
+            connection.commit();
+
+            for (int i = 0; i < IDs.length; i++) {
+                graph.addTask(IDs[i]);
+                if (tasks.get(i).getComplete()) {
+                    graph.completeTask(IDs[i]);
+                }
+            }
+            for (int[] edge : addedDependencies) {
+                graph.addDependency(edge[0], edge[1]);
+            }
+            dataChanged(DatabaseListener.Change.ADDED, IDs, dependencyIDs);
+            return IDs;
         }
-        return false;
+        catch (SQLException e){
+            addTasksMetrics.error();
+            e.printStackTrace();
+        }
+        finally {
+            writeLock.unlock();
+            addTasksMetrics.end(start);
+        }
+        return null;
     }
 
-    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~REMOVE METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+    // whether the positions in batchDependencies depend on each other in a cycle; they're counted down the same
+    // way DependencyGraph.getTopologicalOrder counts down tasks
+    private boolean hasCycle(int[][] batchDependencies){
+        int[] remaining = new int[batchDependencies.length];
+        List<List<Integer>> dependents = new ArrayList<>();
+        for (int i = 0; i < batchDependencies.length; i++) {
+            dependents.add(new ArrayList<>());
+        }
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < batchDependencies.length; i++) {
+            for (int position : batchDependencies[i]) { // a task listing itself never counts down to 0
+                dependents.get(position).add(i);
+                remaining[i]++;
+            }
+            if (remaining[i] == 0) {
+                ready.add(i);
+            }
+        }
 
-    // remove the task with the specified ID
-    public boolean removeTask(int ID){
-        Task task = getTask(ID);
+        int ordered = 0;
+        while (!ready.isEmpty()) {
+            int position = ready.poll();
+            ordered++;
+            for (int dependent : dependents.get(position)) {
+                if (--remaining[dependent] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        return ordered < batchDependencies.length;
+    }
+
+    // inserts a row into Tasks and returns the ID SQLite assigned it
+    private int insertTask(ConnectionPool.PooledConnection connection, Task task, long version) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepare(INSERT_TASK);
+
+        preparedStatement.setNull(1, Types.INTEGER); // a null ID makes SQLite pick the next rowid
+        setTaskParameters(preparedStatement, task, version);
+        preparedStatement.executeUpdate();
+
+        try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+            return generatedKeys.getInt(1);
+        }
+    }
+
+    // binds everything but the ID for INSERT_TASK
+    private void setTaskParameters(PreparedStatement preparedStatement, Task task, long version) throws SQLException {
+        preparedStatement.setString(2, task.getTaskName());
+        preparedStatement.setString(3, task.getDescription());
+        preparedStatement.setString(4, convertListToString(task.getRequirements()));
+        preparedStatement.setLong(5, task.getDateCreated());
+        preparedStatement.setLong(6, task.getDateDue());
+
+        if (task.getComplete()) {
+            preparedStatement.setInt(7, (1));
+        }
+        else {
+            preparedStatement.setInt(7, (0));
+        }
+        preparedStatement.setString(8, "");
+        preparedStatement.setString(9, "");
+        preparedStatement.setLong(10, version);
+    }
 
-        // clear all dependents and dependencies of this task
-        for (String dependency: task.getDependencies()){
-            removeDependency(ID, Integer.parseInt(dependency));
+    // sets the version of tasks whose JSON a change alters without writing to their rows
+    private void markChanged(ConnectionPool.PooledConnection connection, long version, int... IDs)
+            throws SQLException {
+        if (IDs.length == 0) {
+            return;
         }
-        for (String dependent: task.getDependents()){
-            removeDependency(Integer.parseInt(dependent), ID);
+        PreparedStatement preparedStatement = connection.prepare(UPDATE_VERSION);
+
+        for (int ID : IDs) {
+            preparedStatement.setLong(1, version);
+            preparedStatement.setInt(2, ID);
+            preparedStatement.addBatch();
         }
+        preparedStatement.executeBatch();
+    }
+
+    // inserts an edge if both tasks exist and it isn't there already; returns whether it was inserted
+    private boolean insertDependency(ConnectionPool.PooledConnection connection, int dependentID, int dependencyID)
+            throws SQLException {
+        PreparedStatement preparedStatement = connection.prepare(INSERT_DEPENDENCY);
+
+        setDependencyParameters(preparedStatement, dependentID, dependencyID);
+        return preparedStatement.executeUpdate() == 1;
+    }
+
+    private void setDependencyParameters(PreparedStatement preparedStatement, int dependentID, int dependencyID)
+            throws SQLException {
+        preparedStatement.setInt(1, dependentID);
+        preparedStatement.setInt(2, dependencyID);
+        preparedStatement.setInt(3, dependentID);
+        preparedStatement.setInt(4, dependencyID);
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~REMOVE METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
 
-        // delete from database
-        try (Connection connection = DriverManager.getConnection(database_URL)){
+    // remove the task with the specified ID, and its edges, in one transaction
+    public boolean removeTask(int ID){
+        long start = removeTaskMetrics.begin();
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            connection.begin();
+
+            // the tasks at the other ends of its edges list it, so they change too
+            int[] dependencies = graph.getDependencies(ID);
+            int[] dependents = graph.getDependents(ID);
+            int[] neighbourIDs = Arrays.copyOf(dependencies, dependencies.length + dependents.length);
+            System.arraycopy(dependents, 0, neighbourIDs, dependencies.length, dependents.length);
+
+            // clear all dependents and dependencies of this task
+            String removeEdgesUpdate = "DELETE FROM Dependencies WHERE dependent_id == ? OR dependency_id == ?";
+            PreparedStatement prepareRemoveEdges = connection.prepare(removeEdgesUpdate);
+
+            prepareRemoveEdges.setInt(1, ID);
+            prepareRemoveEdges.setInt(2, ID);
+            prepareRemoveEdges.executeUpdate();
+
+            // delete from database
             String removeTaskUpdate = "DELETE FROM Tasks WHERE ID == ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(removeTaskUpdate);
+            PreparedStatement preparedStatement = connection.prepare(removeTaskUpdate);
 
             preparedStatement.setInt(1, ID);
-            preparedStatement.executeUpdate();
-            return true;
+            boolean removed = preparedStatement.executeUpdate() == 1; // false if there was no such task
+
+            if (removed) { // leave a tombstone for getRemovedTaskIDs
+                long version = nextVersion();
+                PreparedStatement tombstoneStatement = connection.prepare("INSERT INTO RemovedTasks (version, ID) " +
+                        "VALUES (?, ?)");
+                tombstoneStatement.setLong(1, version);
+                tombstoneStatement.setInt(2, ID);
+                tombstoneStatement.executeUpdate();
+                markChanged(connection, version, neighbourIDs);
+            }
+            connection.commit();
+
+            if (removed) {
+                graph.removeTask(ID);
+                dataChanged(DatabaseListener.Change.REMOVED, new int[] {ID}, neighbourIDs);
+            }
+            return removed;
         }
         catch (SQLException e){
+            removeTaskMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            writeLock.unlock();
+            removeTaskMetrics.end(start);
+        }
         return false;
     }
 
     public boolean removeDependency(int dependentID, int dependencyID){
-        // get the existing dependencies that the dependent task has
-        List<String> dependencies = getDependencies(dependentID);
-
-        // get the existing dependents that the dependency has
-        List<String> dependents = getDependents(dependencyID);
-
-        if (dependencies.contains(Integer.toString(dependencyID))) { // check if dependency actually exists
-            // remove tasks from each other's lists
-            dependencies.remove(Integer.toString(dependencyID));
-            dependents.remove(Integer.toString(dependentID));
-
-            // update each task
-            boolean dependenciesRemoved = updateDependencies(dependentID, dependencies);
-            boolean dependentsRemoved = updateDependents(dependencyID, dependents);
+        long start = removeDependencyMetrics.begin();
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            String removeDependencyUpdate = "DELETE FROM Dependencies WHERE dependent_id == ? AND dependency_id == ?";
+            PreparedStatement preparedStatement = connection.prepare(removeDependencyUpdate);
+
+            connection.begin();
+            preparedStatement.setInt(1, dependentID);
+            preparedStatement.setInt(2, dependencyID);
+
+            boolean removed = preparedStatement.executeUpdate() == 1; // false if the dependency didn't exist
+            if (removed) {
+                markChanged(connection, nextVersion(), dependentID, dependencyID);
+            }
+            connection.commit();
 
-            return dependenciesRemoved && dependentsRemoved;
+            if (removed){
+                graph.removeDependency(dependentID, dependencyID);
+                dataChanged(DatabaseListener.Change.DEPENDENCY_REMOVED, new int[] {dependentID, dependencyID}, NO_IDS);
+                return true;
+            }
+        }
+        catch (SQLException e){
+            removeDependencyMetrics.error();
+            e.printStackTrace();
+        }
+        finally {
+            writeLock.unlock();
+            removeDependencyMetrics.end(start);
         }
         return false;
     }
@@ -277,72 +1207,219 @@ public class Database {
 
     // mark a task as complete
     public boolean completeTask(int ID){
-        try (Connection connection = DriverManager.getConnection(database_URL)) {
-            String update = "UPDATE Tasks SET isComplete = 1, dateComplete = ? WHERE ID == ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(update);
+        long start = completeTaskMetrics.begin();
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()) {
+            String update = "UPDATE Tasks SET isComplete = 1, dateComplete = ?, version = ? WHERE ID == ?";
+            PreparedStatement preparedStatement = connection.prepare(update);
 
             long dateComplete = new java.util.Date().getTime();
             preparedStatement.setLong(1, dateComplete);
-            preparedStatement.setInt(2, ID);
-            preparedStatement.executeUpdate();
-            return true;
+            preparedStatement.setLong(2, nextVersion());
+            preparedStatement.setInt(3, ID);
+            if (preparedStatement.executeUpdate() == 1) { // false if there was no such task
+                graph.completeTask(ID);
+                dataChanged(DatabaseListener.Change.COMPLETED, new int[] {ID}, NO_IDS);
+                return true;
+            }
         }
         catch (SQLException e) {
+            completeTaskMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            writeLock.unlock();
+            completeTaskMetrics.end(start);
+        }
         return false;
     }
 
     // updates the email column for the person who has claimed the task
     public boolean updateClaim(int ID, String claimedByEmail){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String update = "UPDATE Tasks SET claimedByEmail = ?, isClaimed = 1 WHERE ID == ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(update);
+        long start = updateClaimMetrics.begin();
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            String update = "UPDATE Tasks SET claimedByEmail = ?, isClaimed = 1, version = ? WHERE ID == ?";
+            PreparedStatement preparedStatement = connection.prepare(update);
 
             preparedStatement.setString(1, claimedByEmail);
-            preparedStatement.setInt(2, ID);
-            preparedStatement.executeUpdate();
-            return true;
+            preparedStatement.setLong(2, nextVersion());
+            preparedStatement.setInt(3, ID);
+            if (preparedStatement.executeUpdate() == 1){ // false if there was no such task
+                dataChanged(DatabaseListener.Change.CLAIMED, new int[] {ID}, NO_IDS);
+                return true;
+            }
         }
         catch (SQLException e){
+            updateClaimMetrics.error();
             e.printStackTrace();
         }
+        finally {
+            writeLock.unlock();
+            updateClaimMetrics.end(start);
+        }
         return false;
     }
 
-    // only used internally when adding or removing dependencies
-    private boolean updateDependencies(int ID, List<String> dependencies){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String updateDependencies = "UPDATE Tasks SET dependencies = ? WHERE ID == ?";
-            PreparedStatement prepareUpdateDependencies = connection.prepareStatement(updateDependencies);
-            prepareUpdateDependencies.setString(1, convertListToString(dependencies));
-            prepareUpdateDependencies.setInt(2, ID);
-            prepareUpdateDependencies.executeUpdate();
-            return true;
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~HELPER METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    Metrics getMetrics(){
+        return metrics;
+    }
+
+    // increases whenever the tasks or their dependencies change. it's stored with the tasks each change touches,
+    // so it carries on from where it was when the database is opened again
+    long getDataVersion(){
+        return dataVersion.get();
+    }
+
+    // the version the change being written will have once dataChanged is called; only valid with the write lock
+    private long nextVersion(){
+        return dataVersion.get() + 1;
+    }
+
+    void addListener(DatabaseListener listener){
+        listeners.add(listener);
+    }
+
+    // called with the write lock held, after the change is committed. the version goes up before listeners hear
+    // about the change, so a reader that saw the old version and then read old data can tell its copy is stale
+    private void dataChanged(DatabaseListener.Change change, int[] IDs, int[] relatedIDs){
+        long version = dataVersion.incrementAndGet();
+
+        for (DatabaseListener listener : listeners) {
+            try {
+                listener.onChange(version, change, IDs, relatedIDs);
+            }
+            catch (RuntimeException e) { // the change is already committed, so the write still succeeded
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // runs EXPLAIN QUERY PLAN on every statement prepared so far and returns a line for each step that reads a
+    // whole table that grows with the tasks, in a statement that isn't meant to, and for each statement that
+    // doesn't use the index it was written for. a missing or unusable index shows up here long before it shows
+    // up as latency. null if the plans couldn't be read
+    List<String> checkQueryPlans(){
+        List<String> fullScans = new ArrayList<>();
+        try (ConnectionPool.PooledConnection connection = pool.borrow();
+             Statement statement = connection.getConnection().createStatement()) {
+            for (String sql : pool.getPreparedSQL()) {
+                if (FULL_SCANS.contains(sql)) {
+                    continue;
+                }
+                String requiredIndex = REQUIRED_INDEXES.get(sql);
+                boolean usedIndex = false;
+
+                // statements are only prepared, so their parameters needn't be bound
+                try (ResultSet plan = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+                    while (plan.next()) {
+                        String step = plan.getString("detail");
+                        if (isFullScan(step)) {
+                            fullScans.add(sql + ": " + step);
+                        }
+                        usedIndex |= requiredIndex != null && step.contains(" INDEX " + requiredIndex + " ");
+                    }
+                }
+                if (requiredIndex != null && !usedIndex) {
+                    fullScans.add(sql + ": doesn't use " + requiredIndex);
+                }
+            }
+            return fullScans;
         }
         catch (SQLException e){
             e.printStackTrace();
         }
-        return false;
+        return null;
+    }
+
+    // a step like "SCAN TABLE Tasks" (or "SCAN Tasks" in newer SQLite) reads every row; one that goes on
+    // "USING INDEX ..." only reads a partial index, or the rows in order for an ORDER BY
+    private boolean isFullScan(String step){
+        String[] words = step.split(" ");
+        if (words.length < 2 || !words[0].equals("SCAN") || step.contains(" USING ")) {
+            return false;
+        }
+        String table = words[1].equals("TABLE") && words.length > 2 ? words[2] : words[1];
+        return GROWING_TABLES.contains(table);
+    }
+
+    // borrowed/idle connections and time spent waiting for one, for monitoring
+    public ConnectionPool.Stats getPoolStats(){
+        return pool.getStats();
+    }
+
+    // closes the pooled connections
+    public void close(){
+        pool.close();
+    }
+
+    // runs one of the *_PAGE queries and returns the tasks it finds
+    private List<Task> getTaskPage(Metrics.Operation operation, String pageQuery, int afterID, int limit){
+        long start = operation.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            PreparedStatement preparedStatement = connection.prepare(pageQuery);
+
+            preparedStatement.setInt(1, afterID);
+            preparedStatement.setInt(2, limit);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                return parseResultSet(results);
+            }
+        }
+        catch (SQLException e){
+            operation.error();
+            e.printStackTrace();
+        }
+        finally {
+            operation.end(start);
+        }
+        return null;
     }
 
-    // only used internally when adding or removing dependencies
-    private boolean updateDependents(int ID, List<String> dependents){
-        try (Connection connection = DriverManager.getConnection(database_URL)){
-            String updateDependents = "UPDATE Tasks SET dependents = ? WHERE ID == ?";
-            PreparedStatement prepareUpdateDependents = connection.prepareStatement(updateDependents);
-            prepareUpdateDependents.setString(1, convertListToString(dependents));
-            prepareUpdateDependents.setInt(2, ID);
-            prepareUpdateDependents.executeUpdate();
+    // runs one of the *_PAGE queries and passes each resulting task to consumer as soon as it is read.
+    // the connection is held until consumer has seen the last row, so a slow consumer keeps it busy
+    private boolean streamTasks(Metrics.Operation operation, String pageQuery, int afterID, int limit,
+                                TaskConsumer consumer) throws IOException {
+        long start = operation.begin();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()){
+            PreparedStatement preparedStatement = connection.prepare(pageQuery);
+
+            preparedStatement.setInt(1, afterID);
+            preparedStatement.setInt(2, limit);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()){
+                    consumer.accept(makeTask(results));
+                }
+            }
             return true;
         }
         catch (SQLException e){
+            operation.error();
             e.printStackTrace();
         }
+        finally {
+            operation.end(start);
+        }
         return false;
     }
 
-    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~HELPER METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+    // puts tasks read in ID order into the order of IDs, leaving out any that weren't found
+    private List<Task> orderTasks(List<Task> tasks, int[] IDs){
+        Map<Integer, Task> tasksByID = new HashMap<>();
+        for (Task task : tasks) {
+            tasksByID.put(task.getID(), task);
+        }
+
+        List<Task> ordered = new ArrayList<>(tasks.size());
+        for (int ID : IDs) {
+            Task task = tasksByID.get(ID);
+            if (task != null) {
+                ordered.add(task);
+            }
+        }
+        return ordered;
+    }
 
     // creates a Task object for each result in a ResultSet
     private List<Task> parseResultSet(ResultSet results) throws SQLException{
@@ -357,34 +1434,20 @@ public class Database {
 
     // creates Task objects from results of a database query
     private Task makeTask(ResultSet results) throws SQLException{
-        int ID = results.getInt("ID");
-        String taskName = results.getString("taskName");
-        String description = results.getString("description");
-        List<String> requirements = convertStringToList(results.getString("requirements"));
-        Date dateCreated = new Date(results.getLong("dateCreated"));
-        Date dateDue = new Date(results.getLong("dateDue"));
-        boolean isComplete = results.getInt("isComplete") == 1;
-        boolean isClaimed = results.getInt("isClaimed") == 1;
-
-        List<String> dependencies = convertStringToList(results.getString("dependencies"));
-        List<String> dependents = convertStringToList(results.getString("dependents"));
-
-        if (isComplete){
-            Date dateComplete = new Date(results.getLong("dateComplete"));
-            String claimedByEmail = results.getString("claimedByEmail");
-
-            return new Task(ID, taskName, description, requirements, dateCreated,
-                    dateDue, dateComplete, true, isClaimed, claimedByEmail, dependencies, dependents);
-        }
-        else if (isClaimed){
-            String claimedByEmail = results.getString("claimedByEmail");
-            return new Task(ID, taskName, description, requirements, dateCreated,
-                    dateDue, false, true, claimedByEmail, dependencies, dependents);
-        }
-        else {
-            return new Task(ID, taskName, description, requirements, dateCreated,
-                    dateDue, false, false, dependencies, dependents);
-        }
+        // by position in TASK_COLUMNS, which saves looking each column up by name for every row
+        int ID = results.getInt(1);
+        String taskName = results.getString(2);
+        String description = results.getString(3);
+        List<String> requirements = convertStringToList(results.getString(4));
+        long dateCreated = results.getLong(5);
+        long dateDue = results.getLong(6);
+        boolean isComplete = results.getInt(8) == 1;
+        boolean isClaimed = results.getInt(9) == 1;
+        long dateComplete = isComplete ? results.getLong(7) : 0;
+        String claimedByEmail = isComplete || isClaimed ? results.getString(10) : null;
+
+        return new Task(ID, taskName, description, requirements, dateCreated, dateDue, dateComplete,
+                isComplete, isClaimed, claimedByEmail, graph.getDependencies(ID), graph.getDependents(ID));
     }
 
     // to convert the reqs array into an asterisk-separated string to be stored in DB
@@ -398,11 +1461,59 @@ public class Database {
         return output.toString();
     }
 
-    // to convert reqs string back to an array
+    // turns "Test Row #3" into the FTS5 prefix phrase "Test Row 3"*, or null if there are no words in query.
+    // only letters and digits are kept, the same characters the index's tokenizer keeps, so nothing in
+    // the user's query can be read as FTS5 syntax
+    private String makeMatchQuery(String query){
+        StringBuilder phrase = new StringBuilder();
+
+        for (String word : query.split("[^\\p{L}\\p{N}]+")){
+            if (!word.isEmpty()){
+                if (phrase.length() > 0){
+                    phrase.append(' ');
+                }
+                phrase.append(word);
+            }
+        }
+
+        if (phrase.length() == 0){
+            return null;
+        }
+        return "\"" + phrase + "\"*";
+    }
+
+    // to convert task IDs from the graph into the strings Task uses
+    private List<String> convertIDsToList(int[] IDs){
+        List<String> list = new ArrayList<>(IDs.length);
+
+        for (int ID : IDs){
+            list.add(Integer.toString(ID));
+        }
+
+        return list;
+    }
+
+    // to convert reqs string back to an array, without split(), which builds the list twice
     private List<String> convertStringToList(String string){
-        if (!string.equals("")) {
-            return Arrays.asList(string.split("\\*"));
+        if (string == null || string.isEmpty()) { // legacy dependency columns can be NULL
+            return new ArrayList<>();
         }
-        return new ArrayList<>();
+
+        List<String> list = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = string.indexOf('*', start)) >= 0) {
+            list.add(string.substring(start, end));
+            start = end + 1;
+        }
+        if (start < string.length()) { // the string normally ends with a *, but an old row may not
+            list.add(string.substring(start));
+        }
+        return list;
+    }
+
+    // receives tasks one at a time from the stream methods
+    interface TaskConsumer {
+        void accept(Task task) throws IOException;
     }
 }
@@ -0,0 +1,17 @@
+// hears about each change to the tasks once it's committed. Database calls its listeners with the write lock
+// held, so they hear about changes in the order they were made, and they should return quickly
+interface DatabaseListener {
+
+    enum Change {
+        ADDED, // new tasks; the related tasks are existing ones they depend on
+        REMOVED, // a removed task; the related tasks are the ones it had edges to
+        COMPLETED,
+        CLAIMED,
+        DEPENDENCY_ADDED, // the dependent task, then its new dependency
+        DEPENDENCY_REMOVED // the dependent task, then its old dependency
+    }
+
+    // version is the database's data version after the change; each change adds exactly one. IDs are the tasks
+    // the change was made to, and relatedIDs any others whose JSON it changed, since tasks list their edges
+    void onChange(long version, Change change, int[] IDs, int[] relatedIDs);
+}
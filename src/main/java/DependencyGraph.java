@@ -0,0 +1,628 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// an in-memory copy of the Dependencies table and of which task IDs exist, so dependency lookups and searches
+// through the graph don't have to go to SQLite.
+// adjacency is kept in both directions as primitive int arrays indexed by task ID (IDs are SQLite rowids,
+// so they are small and dense). each edge is stored twice, once per direction, which costs 8 bytes per edge
+// plus up to 50% spare array capacity; each task that has edges also costs an int[] header (16 bytes)
+// per direction. measured at about 16 bytes per edge with 1M edges spread over 100k tasks.
+// once buildOrder has been called the graph also keeps each task's place in a topological order, every task
+// after the tasks it depends on, and keeps it up to date as edges are added by moving only the tasks between the
+// two ends of an edge that goes against it (Pearce and Kelly's algorithm). that lets dependsOn rule out most
+// pairs without searching, and bounds the search for the rest.
+// it also knows which tasks are complete and counts each task's incomplete dependencies, so the incomplete tasks
+// with none left, the ones ready to work on, are kept as a set rather than worked out from the whole graph.
+class DependencyGraph {
+
+    private static final int[] NO_EDGES = new int[0];
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[][] dependencies = new int[INITIAL_CAPACITY][]; // dependencies[ID]: tasks that ID depends on
+    private int[] dependencyCounts = new int[INITIAL_CAPACITY]; // how many entries of dependencies[ID] are in use
+    private int[][] dependents = new int[INITIAL_CAPACITY][]; // dependents[ID]: tasks that depend on ID
+    private int[] dependentCounts = new int[INITIAL_CAPACITY];
+    private long edgeCount = 0;
+    private final BitSet tasks = new BitSet(); // every task's ID, including tasks without edges
+    private int[] positions = new int[INITIAL_CAPACITY]; // positions[ID]: the task's place in the order
+    private int nextPosition = 0; // after every task's place, for new tasks, which nothing depends on yet
+    private boolean ordered = false; // whether positions is an order; not before buildOrder, or if there's a cycle
+    private final BitSet completeTasks = new BitSet();
+    private int[] blockerCounts = new int[INITIAL_CAPACITY]; // blockerCounts[ID]: its incomplete dependencies
+    private final BitSet readyTasks = new BitSet(); // incomplete tasks whose dependencies are all complete
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~GET METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // IDs of the tasks that a task depends on
+    int[] getDependencies(int ID){
+        lock.readLock().lock();
+        try {
+            return copyEdges(dependencies, dependencyCounts, ID);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // IDs of the tasks that depend on a task
+    int[] getDependents(int ID){
+        lock.readLock().lock();
+        try {
+            return copyEdges(dependents, dependentCounts, ID);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // every task that ID depends on, directly or through other tasks, each after the tasks it depends on, so
+    // the tasks can be done in that order; ID itself isn't included. a depth-first search with an explicit
+    // stack, so a long chain can't overflow the call stack. an edge back into a cycle is skipped, which leaves
+    // the order valid for everything outside cycles
+    int[] getAllDependencies(int ID){
+        lock.readLock().lock();
+        try {
+            if (ID < 0 || ID >= dependencies.length){
+                return NO_EDGES;
+            }
+            IntList order = new IntList();
+            BitSet visited = new BitSet();
+            IntList stack = new IntList(); // the path from ID to the task being searched
+            IntList nextEdge = new IntList(); // for each task on the path, the next of its edges to follow
+
+            visited.set(ID);
+            stack.add(ID);
+            nextEdge.add(0);
+            while (stack.size() > 0){
+                int top = stack.size() - 1;
+                int task = stack.get(top);
+                int edge = nextEdge.get(top);
+
+                if (edge < dependencyCounts[task]){
+                    nextEdge.set(top, edge + 1);
+                    int dependency = dependencies[task][edge];
+                    if (!visited.get(dependency)){
+                        visited.set(dependency);
+                        stack.add(dependency);
+                        nextEdge.add(0);
+                    }
+                }
+                else { // all of its dependencies are in the order, so it can go in too
+                    stack.removeLast();
+                    nextEdge.removeLast();
+                    if (task != ID){
+                        order.add(task);
+                    }
+                }
+            }
+            return order.toArray();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // a shortest chain of dependencies from fromID to toID: fromID, a task it depends on, a task that one depends
+    // on, and so on to toID. null if fromID doesn't depend on toID, even indirectly. searches forwards from fromID
+    // and backwards from toID at once, widening whichever side has fewer edges to follow, and stops where the two
+    // meet, so asking about a task with few dependencies or few dependents looks at a small part of the graph
+    int[] findDependencyPath(int fromID, int toID){
+        lock.readLock().lock();
+        try {
+            if (Math.min(fromID, toID) < 0 || Math.max(fromID, toID) >= dependencies.length){
+                return null;
+            }
+            if (fromID == toID){
+                return new int[] {fromID};
+            }
+            Map<Integer, Integer> forward = new HashMap<>(); // tasks fromID depends on, to the task reached from
+            Map<Integer, Integer> backward = new HashMap<>(); // tasks that depend on toID, to the next one towards it
+            forward.put(fromID, -1);
+            backward.put(toID, -1);
+            IntList forwardFrontier = new IntList();
+            IntList backwardFrontier = new IntList();
+            forwardFrontier.add(fromID);
+            backwardFrontier.add(toID);
+
+            int meeting = -1;
+            while (meeting < 0 && forwardFrontier.size() > 0 && backwardFrontier.size() > 0){
+                if (countEdges(forwardFrontier, dependencyCounts) <= countEdges(backwardFrontier, dependentCounts)){
+                    IntList next = new IntList();
+                    meeting = widen(forwardFrontier, dependencies, dependencyCounts, forward, backward, next);
+                    forwardFrontier = next;
+                }
+                else {
+                    IntList next = new IntList();
+                    meeting = widen(backwardFrontier, dependents, dependentCounts, backward, forward, next);
+                    backwardFrontier = next;
+                }
+            }
+            if (meeting < 0){
+                return null;
+            }
+
+            IntList path = new IntList();
+            for (int ID = meeting; ID >= 0; ID = forward.get(ID)){
+                path.add(ID);
+            }
+            path.reverse();
+            for (int ID = backward.get(meeting); ID >= 0; ID = backward.get(ID)){
+                path.add(ID);
+            }
+            return path.toArray();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // whether fromID depends on toID, directly or through other tasks. with an order, only the tasks between the
+    // two in it are searched, and a fromID that comes first can't depend on toID at all; without one, falls back
+    // to findDependencyPath
+    boolean dependsOn(int fromID, int toID){
+        lock.readLock().lock();
+        try {
+            if (Math.min(fromID, toID) < 0 || Math.max(fromID, toID) >= dependencies.length){
+                return false;
+            }
+            if (!ordered){
+                return findDependencyPath(fromID, toID) != null;
+            }
+            if (fromID == toID){
+                return true;
+            }
+            if (positions[fromID] < positions[toID]){
+                return false; // everything fromID depends on comes before it, and so before toID
+            }
+            return searchBetween(toID, fromID) == null;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // every task, each after all the tasks it depends on (Kahn's algorithm). tasks in a dependency cycle, and
+    // tasks that depend on one, can't be put in order; they're returned second, in ID order
+    int[][] getTopologicalOrder(){
+        lock.readLock().lock();
+        try {
+            return topologicalOrder();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // IDs of the incomplete tasks whose dependencies are all complete, in order, after afterID and at most limit
+    // of them, or all of them if limit is negative
+    int[] getReadyTasks(int afterID, int limit){
+        lock.readLock().lock();
+        try {
+            IntList IDs = new IntList();
+            if (afterID == Integer.MAX_VALUE){
+                return NO_EDGES;
+            }
+            for (int ID = readyTasks.nextSetBit(Math.max(afterID + 1, 0)); ID >= 0 && IDs.size() != limit;
+                 ID = readyTasks.nextSetBit(ID + 1)){
+                IDs.add(ID);
+            }
+            return IDs.toArray();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getEdgeCount(){
+        lock.readLock().lock();
+        try {
+            return edgeCount;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ADD METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // makes room for a new task; removeTask already cleared any edges left under a reused rowid
+    void addTask(int ID){
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(ID);
+            tasks.set(ID);
+            positions[ID] = nextPosition++;
+            completeTasks.clear(ID);
+            blockerCounts[ID] = 0;
+            readyTasks.set(ID);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // record that dependentID relies on dependencyID; does nothing if the edge is already there
+    void addDependency(int dependentID, int dependencyID){
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(Math.max(dependentID, dependencyID));
+
+            if (indexOf(dependencies[dependentID], dependencyCounts[dependentID], dependencyID) < 0){
+                append(dependencies, dependencyCounts, dependentID, dependencyID);
+                append(dependents, dependentCounts, dependencyID, dependentID);
+                edgeCount++;
+
+                if (!completeTasks.get(dependencyID)){
+                    blockerCounts[dependentID]++;
+                    readyTasks.clear(dependentID);
+                }
+                if (ordered && positions[dependencyID] >= positions[dependentID]){
+                    ordered = reorder(dependentID, dependencyID);
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // puts every task in order from scratch, after which the order is kept as edges are added. if the graph has
+    // a cycle there's no order to keep, and dependsOn searches without one until this is called again
+    void buildOrder(){
+        lock.writeLock().lock();
+        try {
+            int[][] order = topologicalOrder();
+            ordered = order[1].length == 0;
+            if (ordered){
+                for (int i = 0; i < order[0].length; i++){
+                    positions[order[0][i]] = i;
+                }
+                nextPosition = order[0].length;
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~UPDATE METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // record that a task is done, which may leave tasks that depend on it ready; does nothing if it already was
+    void completeTask(int ID){
+        lock.writeLock().lock();
+        try {
+            if (!tasks.get(ID) || completeTasks.get(ID)){
+                return;
+            }
+            completeTasks.set(ID);
+            readyTasks.clear(ID);
+            for (int i = 0; i < dependentCounts[ID]; i++){
+                unblock(dependents[ID][i]);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~REMOVE METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // remove a task and every edge that touches it
+    void removeTask(int ID){
+        lock.writeLock().lock();
+        try {
+            if (ID < 0 || ID >= dependencies.length){
+                return;
+            }
+            // take out an edge from the task to itself first so the loops below don't modify what they iterate
+            if (remove(dependencies, dependencyCounts, ID, ID)){
+                remove(dependents, dependentCounts, ID, ID);
+                edgeCount--;
+            }
+            for (int i = 0; i < dependencyCounts[ID]; i++){
+                remove(dependents, dependentCounts, dependencies[ID][i], ID);
+            }
+            for (int i = 0; i < dependentCounts[ID]; i++){
+                remove(dependencies, dependencyCounts, dependents[ID][i], ID);
+                if (!completeTasks.get(ID)){
+                    unblock(dependents[ID][i]);
+                }
+            }
+            edgeCount -= dependencyCounts[ID] + dependentCounts[ID];
+
+            dependencies[ID] = null;
+            dependencyCounts[ID] = 0;
+            dependents[ID] = null;
+            dependentCounts[ID] = 0;
+            tasks.clear(ID);
+            completeTasks.clear(ID);
+            blockerCounts[ID] = 0;
+            readyTasks.clear(ID);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void removeDependency(int dependentID, int dependencyID){
+        lock.writeLock().lock();
+        try {
+            if (Math.min(dependentID, dependencyID) < 0 || Math.max(dependentID, dependencyID) >= dependencies.length){
+                return;
+            }
+            if (remove(dependencies, dependencyCounts, dependentID, dependencyID)){
+                remove(dependents, dependentCounts, dependencyID, dependentID);
+                edgeCount--;
+
+                if (!completeTasks.get(dependencyID)){
+                    unblock(dependentID);
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~HELPER METHODS~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    private int[] copyEdges(int[][] edges, int[] counts, int ID){
+        if (ID < 0 || ID >= edges.length || counts[ID] == 0){
+            return NO_EDGES;
+        }
+        return Arrays.copyOf(edges[ID], counts[ID]);
+    }
+
+    // getTopologicalOrder, for callers that already hold the lock
+    private int[][] topologicalOrder(){
+        int[] remaining = new int[dependencies.length]; // dependencies not yet in the order, for each task
+        IntList order = new IntList();
+        for (int ID = tasks.nextSetBit(0); ID >= 0; ID = tasks.nextSetBit(ID + 1)){
+            remaining[ID] = dependencyCounts[ID];
+            if (remaining[ID] == 0){
+                order.add(ID);
+            }
+        }
+
+        // the order doubles as the queue: everything before next has had its dependents counted down
+        for (int next = 0; next < order.size(); next++){
+            int ID = order.get(next);
+            for (int i = 0; i < dependentCounts[ID]; i++){
+                int dependent = dependents[ID][i];
+                if (--remaining[dependent] == 0){
+                    order.add(dependent);
+                }
+            }
+        }
+
+        IntList unordered = new IntList();
+        for (int ID = tasks.nextSetBit(0); ID >= 0; ID = tasks.nextSetBit(ID + 1)){
+            if (remaining[ID] > 0){
+                unordered.add(ID);
+            }
+        }
+        return new int[][] {order.toArray(), unordered.toArray()};
+    }
+
+    // takes one incomplete dependency off a task's count, and if that was the last, it's ready unless it's done
+    private void unblock(int ID){
+        if (--blockerCounts[ID] == 0 && tasks.get(ID) && !completeTasks.get(ID)){
+            readyTasks.set(ID);
+        }
+    }
+
+    // after adding an edge that goes against the order, moves the tasks between its two ends so the order holds
+    // again. the dependency and what it depends on, from the stretch of the order between the two, take the
+    // earliest of those places; the dependent task and what depends on it take the rest. returns false if the
+    // edge closed a cycle, in which case nothing is moved
+    private boolean reorder(int dependentID, int dependencyID){
+        IntList earlier = searchBetween(dependentID, dependencyID);
+        if (earlier == null){
+            return false;
+        }
+        IntList later = searchForwardBetween(dependentID, positions[dependencyID]);
+
+        int[] moved = new int[earlier.size() + later.size()];
+        for (int i = 0; i < earlier.size(); i++){
+            moved[i] = positions[earlier.get(i)];
+        }
+        for (int i = 0; i < later.size(); i++){
+            moved[earlier.size() + i] = positions[later.get(i)];
+        }
+        Arrays.sort(moved);
+
+        sortByPosition(earlier);
+        sortByPosition(later);
+        for (int i = 0; i < earlier.size(); i++){
+            positions[earlier.get(i)] = moved[i];
+        }
+        for (int i = 0; i < later.size(); i++){
+            positions[later.get(i)] = moved[earlier.size() + i];
+        }
+        return true;
+    }
+
+    // follows dependencies from fromID through the tasks placed after toID, and returns every task it reached,
+    // fromID included, or null if it reached toID, since then fromID depends on it
+    private IntList searchBetween(int toID, int fromID){
+        int lowest = positions[toID];
+        IntList found = new IntList();
+        BitSet visited = new BitSet();
+        IntList stack = new IntList();
+        visited.set(fromID);
+        stack.add(fromID);
+        while (stack.size() > 0){
+            int ID = stack.get(stack.size() - 1);
+            stack.removeLast();
+            found.add(ID);
+            for (int i = 0; i < dependencyCounts[ID]; i++){
+                int dependency = dependencies[ID][i];
+                if (dependency == toID){
+                    return null;
+                }
+                if (positions[dependency] > lowest && !visited.get(dependency)){
+                    visited.set(dependency);
+                    stack.add(dependency);
+                }
+            }
+        }
+        return found;
+    }
+
+    // follows dependents from fromID through the tasks placed before highest, and returns every task it reached,
+    // fromID included
+    private IntList searchForwardBetween(int fromID, int highest){
+        IntList found = new IntList();
+        BitSet visited = new BitSet();
+        IntList stack = new IntList();
+        visited.set(fromID);
+        stack.add(fromID);
+        while (stack.size() > 0){
+            int ID = stack.get(stack.size() - 1);
+            stack.removeLast();
+            found.add(ID);
+            for (int i = 0; i < dependentCounts[ID]; i++){
+                int dependent = dependents[ID][i];
+                if (positions[dependent] < highest && !visited.get(dependent)){
+                    visited.set(dependent);
+                    stack.add(dependent);
+                }
+            }
+        }
+        return found;
+    }
+
+    private void sortByPosition(IntList IDs){
+        long[] keyed = new long[IDs.size()]; // position in the high half, ID in the low half
+        for (int i = 0; i < keyed.length; i++){
+            keyed[i] = ((long) positions[IDs.get(i)] << 32) | IDs.get(i);
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < keyed.length; i++){
+            IDs.set(i, (int) keyed[i]);
+        }
+    }
+
+    private static long countEdges(IntList frontier, int[] counts){
+        long count = 0;
+        for (int i = 0; i < frontier.size(); i++){
+            count += counts[frontier.get(i)];
+        }
+        return count;
+    }
+
+    // one step of findDependencyPath's search: follows the edges out of frontier to tasks this side hasn't
+    // reached, recording where each was reached from and adding it to next. returns the first task the other
+    // side has already reached, or -1
+    private static int widen(IntList frontier, int[][] edges, int[] counts, Map<Integer, Integer> reached,
+                             Map<Integer, Integer> otherSide, IntList next){
+        for (int i = 0; i < frontier.size(); i++){
+            int ID = frontier.get(i);
+            for (int j = 0; j < counts[ID]; j++){
+                int otherID = edges[ID][j];
+                if (reached.putIfAbsent(otherID, ID) == null){
+                    if (otherSide.containsKey(otherID)){
+                        return otherID;
+                    }
+                    next.add(otherID);
+                }
+            }
+        }
+        return -1;
+    }
+
+    // grow the per-task arrays by half again until ID fits
+    private void ensureCapacity(int ID){
+        if (ID < 0){
+            throw new IllegalArgumentException("Task IDs can't be negative: " + ID);
+        }
+        if (ID < dependencies.length){
+            return;
+        }
+        int capacity = dependencies.length;
+        while (capacity <= ID){
+            capacity += (capacity >> 1) + 1;
+        }
+        dependencies = Arrays.copyOf(dependencies, capacity);
+        dependencyCounts = Arrays.copyOf(dependencyCounts, capacity);
+        dependents = Arrays.copyOf(dependents, capacity);
+        dependentCounts = Arrays.copyOf(dependentCounts, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        blockerCounts = Arrays.copyOf(blockerCounts, capacity);
+    }
+
+    private static void append(int[][] edges, int[] counts, int ID, int otherID){
+        int[] list = edges[ID];
+        int count = counts[ID];
+
+        if (list == null){
+            list = new int[2];
+        }
+        else if (count == list.length){
+            list = Arrays.copyOf(list, count + (count >> 1) + 1);
+        }
+        list[count] = otherID;
+        edges[ID] = list;
+        counts[ID] = count + 1;
+    }
+
+    // removes otherID from ID's list by moving the last entry into its place; returns false if it wasn't there
+    private static boolean remove(int[][] edges, int[] counts, int ID, int otherID){
+        int index = indexOf(edges[ID], counts[ID], otherID);
+        if (index < 0){
+            return false;
+        }
+        int last = --counts[ID];
+        edges[ID][index] = edges[ID][last];
+
+        if (last == 0){
+            edges[ID] = null;
+        }
+        return true;
+    }
+
+    // a growable list of ints, for the searches, which don't know how many tasks they'll reach
+    private static class IntList {
+
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value){
+            if (size == values.length){
+                values = Arrays.copyOf(values, size + (size >> 1) + 1);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) { return values[index]; }
+        void set(int index, int value) { values[index] = value; }
+        void removeLast() { size--; }
+        int size() { return size; }
+
+        void reverse(){
+            for (int i = 0, j = size - 1; i < j; i++, j--){
+                int value = values[i];
+                values[i] = values[j];
+                values[j] = value;
+            }
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static int indexOf(int[] list, int count, int ID){
+        for (int i = 0; i < count; i++){
+            if (list[i] == ID){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+// hands every task to another executor but lets at most `limit` of them run at once; the rest wait in FIFO
+// order. used in front of a virtual thread per task executor, where threads are free but database
+// connections are not
+class LimitedExecutor implements Executor {
+
+    private final Executor executor;
+    private final Semaphore permits;
+    private final int limit;
+
+    LimitedExecutor(Executor executor, int limit){
+        if (limit < 1){
+            throw new IllegalArgumentException("Concurrency limit must be at least 1");
+        }
+        this.executor = executor;
+        this.permits = new Semaphore(limit, true);
+        this.limit = limit;
+    }
+
+    @Override
+    public void execute(Runnable task){
+        executor.execute(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                task.run();
+            }
+            finally {
+                permits.release();
+            }
+        });
+    }
+
+    int getLimit() { return limit; }
+    int getActive() { return limit - permits.availablePermits(); }
+    int getWaiting() { return permits.getQueueLength(); } // tasks started but waiting for a permit
+}
@@ -0,0 +1,229 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// latency histograms, counters and in-flight gauges for a set of named operations (routes, database methods),
+// plus any gauges registered on top, written out in Prometheus' text format. operations are registered up front,
+// so recording one is a map lookup and a few atomic adds, with nothing allocated
+class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    static final String OTHER = "other"; // recorded under when a name wasn't registered, to keep label values bounded
+
+    private final String prefix;
+    private final String label;
+    private final String help;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    // metrics are named <prefix>_seconds, <prefix>_errors_total and <prefix>_in_flight, with the operation's
+    // name under label
+    Metrics(String prefix, String label, String help){
+        this.prefix = prefix;
+        this.label = label;
+        this.help = help;
+    }
+
+    Operation register(String name){
+        return operations.computeIfAbsent(name, Operation::new);
+    }
+
+    // the registered operation with this name, or the catch-all one if there isn't one
+    Operation get(String name){
+        Operation operation = operations.get(name);
+        if (operation == null){
+            return register(OTHER);
+        }
+        return operation;
+    }
+
+    // a value read each time the metrics are written out, such as a queue's length
+    void gauge(String name, String help, LongSupplier supplier){
+        gauges.put(name, new Gauge("gauge", help, supplier));
+    }
+
+    // a count kept elsewhere that only goes up, such as cache hits, read each time the metrics are written out
+    void counter(String name, String help, LongSupplier supplier){
+        gauges.put(name, new Gauge("counter", help, supplier));
+    }
+
+    void writePrometheus(StringBuilder out){
+        Map<String, Operation> sorted = new TreeMap<>(operations);
+
+        out.append("# HELP ").append(prefix).append("_seconds ").append(help).append('\n');
+        out.append("# TYPE ").append(prefix).append("_seconds summary\n");
+        for (Operation operation : sorted.values()){
+            Histogram.Snapshot snapshot = operation.latency.snapshot();
+            for (double quantile : QUANTILES){
+                out.append(prefix).append("_seconds{").append(label).append("=\"").append(operation.name)
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(toSeconds(snapshot.valueAt(quantile))).append('\n');
+            }
+            appendSample(out, "_seconds_sum", operation.name, toSeconds(snapshot.getSum()));
+            appendSample(out, "_seconds_count", operation.name, snapshot.getCount());
+        }
+
+        out.append("# TYPE ").append(prefix).append("_errors_total counter\n");
+        for (Operation operation : sorted.values()){
+            appendSample(out, "_errors_total", operation.name, operation.errors.sum());
+        }
+
+        out.append("# TYPE ").append(prefix).append("_in_flight gauge\n");
+        for (Operation operation : sorted.values()){
+            appendSample(out, "_in_flight", operation.name, operation.inFlight.get());
+        }
+
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(gauges).entrySet()){
+            out.append("# HELP ").append(entry.getKey()).append(' ').append(entry.getValue().help).append('\n');
+            out.append("# TYPE ").append(entry.getKey()).append(' ').append(entry.getValue().type).append('\n');
+            out.append(entry.getKey()).append(' ').append(entry.getValue().supplier.getAsLong()).append('\n');
+        }
+    }
+
+    private void appendSample(StringBuilder out, String suffix, String name, Object value){
+        out.append(prefix).append(suffix).append('{').append(label).append("=\"").append(name).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    private static double toSeconds(long nanos){
+        return nanos / 1e9;
+    }
+
+    // timing and counts for one operation. used as
+    //     long start = operation.begin();
+    //     try { ... } catch (...) { operation.error(); ... } finally { operation.end(start); }
+    static class Operation {
+
+        private final String name;
+        private final Histogram latency = new Histogram();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private Operation(String name){
+            this.name = name;
+        }
+
+        long begin(){
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        void end(long start){
+            latency.record(System.nanoTime() - start);
+            inFlight.decrementAndGet();
+        }
+
+        void error(){
+            errors.increment();
+        }
+
+        Histogram getLatency() { return latency; }
+        long getErrors() { return errors.sum(); }
+        int getInFlight() { return inFlight.get(); }
+    }
+
+    // a lock-free log-linear histogram of nanosecond values, laid out like HdrHistogram's: every power of two
+    // is split into 32 equal sub-buckets, so a recorded value is off by at most 1/32 (about 3%) of itself.
+    // values of 2^40 ns (about 18 minutes) or more are counted in the top bucket
+    static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final long MAX_VALUE = (1L << 40) - 1;
+        private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+
+        void record(long nanos){
+            long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+            counts.incrementAndGet(bucketIndex(value));
+            sum.add(value);
+        }
+
+        Snapshot snapshot(){
+            long[] snapshot = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++){
+                snapshot[i] = counts.get(i);
+                count += snapshot[i];
+            }
+            return new Snapshot(snapshot, count, sum.sum());
+        }
+
+        // values below 32 get a bucket each; above that, bucket (shift + 1) * 32 + sub holds the values whose
+        // top six bits are 1 followed by sub, where shift is how far those bits are from the bottom
+        static int bucketIndex(long value){
+            if (value < SUB_BUCKETS){
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        static long bucketLowerBound(int index){
+            if (index < SUB_BUCKETS){
+                return index;
+            }
+            int shift = (index >> SUB_BUCKET_BITS) - 1;
+            return ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)))) << shift;
+        }
+
+        static long bucketWidth(int index){
+            if (index < SUB_BUCKETS){
+                return 1;
+            }
+            return 1L << ((index >> SUB_BUCKET_BITS) - 1);
+        }
+
+        // counts copied out of a histogram at one moment, so percentiles can be read without blocking recording
+        static class Snapshot {
+
+            private final long[] counts;
+            private final long count;
+            private final long sum;
+
+            private Snapshot(long[] counts, long count, long sum){
+                this.counts = counts;
+                this.count = count;
+                this.sum = sum;
+            }
+
+            long getCount() { return count; }
+            long getSum() { return sum; }
+
+            // the value at or below which the given fraction of recorded values fall, as the middle of its bucket
+            long valueAt(double quantile){
+                if (count == 0){
+                    return 0;
+                }
+                long rank = Math.max(1, (long) Math.ceil(quantile * count));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++){
+                    seen += counts[i];
+                    if (seen >= rank){
+                        return bucketLowerBound(i) + bucketWidth(i) / 2;
+                    }
+                }
+                return MAX_VALUE;
+            }
+        }
+    }
+
+    private static class Gauge {
+
+        private final String type; // "gauge" or "counter"
+        private final String help;
+        private final LongSupplier supplier;
+
+        private Gauge(String type, String help, LongSupplier supplier){
+            this.type = type;
+            this.help = help;
+            this.supplier = supplier;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import org.json.JSONObject;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// the nonces handed out by /request_nonce that haven't been used yet. a client can hold several at once, so
+// one making requests in parallel doesn't overwrite its own. nonces are kept by address, since nothing else
+// identifies a client before it has authenticated, so clients behind one NAT or proxy share maxPerClient between
+// them: more than that many authenticating at once push out each other's nonces, and a client whose nonce was
+// pushed out fails to authenticate and has to request another.
+// each nonce can be used once and expires after a TTL; expiry is swept by a timing wheel with one slot per
+// second, so the sweeper only ever looks at the nonces that are due. the store holds at most a fixed number of
+// nonces in total, so clients that ask for nonces and never use them can't grow it without bound
+class NonceStore implements AutoCloseable {
+
+    static final long DEFAULT_TTL_SECONDS = 60;
+    static final int DEFAULT_MAX_PER_CLIENT = 8;
+    static final int DEFAULT_MAX_NONCES = 100000;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long ttlTicks;
+    private final int maxPerClient;
+    private final int maxNonces;
+
+    private final ConcurrentHashMap<InetAddress, ArrayDeque<Entry>> nonces = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    // wheel[t % wheel.length] holds the nonces that expire at tick t; with ttlTicks + 1 slots, a slot's nonces
+    // are all due by the time the sweeper reaches it unless the sweeper has fallen behind
+    private final ConcurrentLinkedQueue<Entry>[] wheel;
+    private final AtomicInteger wheelSize = new AtomicInteger(); // includes nonces already used or evicted
+    private long sweptTick;
+    private final ScheduledExecutorService sweeper;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder consumed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder(); // pushed out by a newer nonce for the same client
+    private final LongAdder refused = new LongAdder(); // not issued because the store was full
+    private final LongAdder failed = new LongAdder(); // credentials that matched none of the client's nonces
+
+    NonceStore(){
+        this(DEFAULT_TTL_SECONDS, DEFAULT_MAX_PER_CLIENT, DEFAULT_MAX_NONCES);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // there's no generic array creation
+    NonceStore(long ttlSeconds, int maxPerClient, int maxNonces){
+        if (ttlSeconds < 1 || maxPerClient < 1 || maxNonces < 1){
+            throw new IllegalArgumentException("Nonce TTL and limits must be at least 1");
+        }
+        this.ttlTicks = ttlSeconds;
+        this.maxPerClient = maxPerClient;
+        this.maxNonces = maxNonces;
+
+        wheel = new ConcurrentLinkedQueue[(int) ttlTicks + 1];
+        for (int i = 0; i < wheel.length; i++){
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        sweptTick = currentTick();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nonce-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(this::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // stores a nonce for a client; returns false if the store is full
+    boolean add(InetAddress client, String nonce){
+        int current;
+        do {
+            current = size.get();
+            if (current >= maxNonces){
+                refused.increment();
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+
+        Entry entry = new Entry(client, nonce, currentTick() + ttlTicks);
+        nonces.compute(client, (key, clientNonces) -> {
+            if (clientNonces == null){
+                clientNonces = new ArrayDeque<>(2);
+            }
+            if (clientNonces.size() == maxPerClient){ // the oldest nonce makes way for the new one
+                clientNonces.removeFirst().live = false;
+                size.decrementAndGet();
+                evicted.increment();
+            }
+            clientNonces.addLast(entry);
+            return clientNonces;
+        });
+        wheel[slotIndex(entry.expiryTick)].add(entry);
+        wheelSize.incrementAndGet();
+
+        issued.increment();
+        return true;
+    }
+
+    // the client's nonces that haven't been used or expired, oldest first
+    List<String> get(InetAddress client){
+        List<String> result = new ArrayList<>();
+        long now = currentTick();
+
+        nonces.computeIfPresent(client, (key, clientNonces) -> {
+            for (Entry entry : clientNonces){
+                if (entry.expiryTick > now){ // the sweeper may not have reached an expired one yet
+                    result.add(entry.nonce);
+                }
+            }
+            return clientNonces;
+        });
+        return result;
+    }
+
+    // uses up a nonce; returns false if it was already used, expired, or never issued to this client
+    boolean consume(InetAddress client, String nonce){
+        long now = currentTick();
+        boolean[] found = {false};
+
+        nonces.computeIfPresent(client, (key, clientNonces) -> {
+            for (Entry entry : clientNonces){
+                if (entry.nonce.equals(nonce) && entry.expiryTick > now){
+                    clientNonces.remove(entry);
+                    entry.live = false;
+                    found[0] = true;
+                    break;
+                }
+            }
+            return clientNonces.isEmpty() ? null : clientNonces;
+        });
+
+        if (found[0]){
+            size.decrementAndGet();
+            consumed.increment();
+        }
+        return found[0];
+    }
+
+    // uses up the client's newest nonce and returns it, or returns null if it has none that hasn't expired
+    String consumeNewest(InetAddress client){
+        long now = currentTick();
+        Entry[] found = {null};
+
+        nonces.computeIfPresent(client, (key, clientNonces) -> {
+            Entry entry = clientNonces.peekLast(); // nonces are added in the order they expire
+            if (entry != null && entry.expiryTick > now){
+                clientNonces.removeLast();
+                entry.live = false;
+                found[0] = entry;
+            }
+            return clientNonces.isEmpty() ? null : clientNonces;
+        });
+
+        if (found[0] == null){
+            return null;
+        }
+        size.decrementAndGet();
+        consumed.increment();
+        return found[0].nonce;
+    }
+
+    void recordFailure(){
+        failed.increment();
+    }
+
+    // drops every nonce in the slots the wheel has passed since the last sweep
+    private synchronized void sweep(){
+        long now = currentTick();
+
+        while (sweptTick < now){
+            sweptTick++;
+            ConcurrentLinkedQueue<Entry> slot = wheel[slotIndex(sweptTick)];
+
+            // a slot can also hold nonces for the wheel's next turn if this sweep is running late
+            Iterator<Entry> entries = slot.iterator();
+            while (entries.hasNext()){
+                Entry entry = entries.next();
+                if (entry.expiryTick <= sweptTick){
+                    entries.remove();
+                    wheelSize.decrementAndGet();
+                    expire(entry);
+                }
+            }
+        }
+
+        // used nonces stay in the wheel until their slot comes round; if they outnumber the limit on live ones,
+        // clear them out of every slot so the wheel stays bounded at any request rate
+        if (wheelSize.get() - size.get() > maxNonces){
+            for (ConcurrentLinkedQueue<Entry> slot : wheel){
+                Iterator<Entry> entries = slot.iterator();
+                while (entries.hasNext()){
+                    if (!entries.next().live){
+                        entries.remove();
+                        wheelSize.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    // removes an entry that is due unless it was used or evicted first
+    private void expire(Entry entry){
+        boolean[] removed = {false};
+
+        nonces.computeIfPresent(entry.client, (key, clientNonces) -> {
+            removed[0] = clientNonces.remove(entry);
+            return clientNonces.isEmpty() ? null : clientNonces;
+        });
+
+        if (removed[0]){
+            size.decrementAndGet();
+            expired.increment();
+        }
+    }
+
+    private int slotIndex(long tick){
+        return (int) Math.floorMod(tick, (long) wheel.length); // nanoTime, and so the tick, can be negative
+    }
+
+    private static long currentTick(){
+        return System.nanoTime() / TICK_NANOS;
+    }
+
+    int getSize(){
+        return size.get();
+    }
+
+    JSONObject getStats(){
+        JSONObject json = new JSONObject();
+
+        json.put("outstanding", size.get());
+        json.put("clients", nonces.size());
+        json.put("wheel_entries", wheelSize.get());
+        json.put("max_nonces", maxNonces);
+        json.put("issued", issued.sum());
+        json.put("consumed", consumed.sum());
+        json.put("expired", expired.sum());
+        json.put("evicted", evicted.sum());
+        json.put("refused", refused.sum());
+        json.put("failed", failed.sum());
+
+        return json;
+    }
+
+    @Override
+    public void close(){
+        sweeper.shutdownNow();
+    }
+
+    // entries are compared by identity, so the same nonce issued twice is still two entries
+    private static class Entry {
+
+        private final InetAddress client;
+        private final String nonce;
+        private final long expiryTick;
+        private volatile boolean live = true; // false once used or evicted
+
+        private Entry(InetAddress client, String nonce, long expiryTick){
+            this.client = client;
+            this.nonce = nonce;
+            this.expiryTick = expiryTick;
+        }
+    }
+}
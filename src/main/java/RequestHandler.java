@@ -1,35 +1,65 @@
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import java.io.*;
 import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 
 public class RequestHandler implements HttpHandler {
 
     private static final String STATUS_OK = "{\"status_code\":0}\n";
     private static final String STATUS_NOT_OK = "{\"status_code\":1}\n";
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String CURSOR_PREFIX = "after:";
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    // every route the server answers; Server makes a context for each
+    static final String[] ROUTES = {"test_connection", "request_nonce", "metrics", "changes", "get_pool_stats",
+            "get_nonce_stats", "get_all_tasks", "get_complete_tasks", "get_incomplete_tasks", "get_task", "search",
+            "get_dependencies", "get_dependents", "get_all_dependencies", "topological_order", "critical_path",
+            "get_ready_tasks", "get_changes_since", "auth", "remove_task", "complete_task", "add_task", "add_tasks",
+            "add_dependency", "remove_dependency", "update_claim"};
+
     private final Database tasksDB;
     private final ServerSideAuthentication auth;
+    private final ResponseCompression compression;
+    private final ResponseCache responseCache;
+    private final ChangeFeed changeFeed;
+
+    // the database file may be replaced while the server is down, so tags also carry when this handler was made
+    private final String eTagPrefix = Long.toString(System.currentTimeMillis(), 36);
+    private final Metrics requestMetrics = new Metrics("shelves_http_request", "route",
+            "Time to handle an HTTP request, by route");
 
     RequestHandler(Database tasksDB, ServerSideAuthentication auth){
+        this(tasksDB, auth, new ResponseCompression(), new ResponseCache(tasksDB), new ChangeFeed(tasksDB));
+    }
+
+    RequestHandler(Database tasksDB, ServerSideAuthentication auth, ResponseCompression compression,
+                   ResponseCache responseCache, ChangeFeed changeFeed){
         this.tasksDB = tasksDB;
         this.auth = auth;
+        this.compression = compression;
+        this.responseCache = responseCache;
+        this.changeFeed = changeFeed;
+
+        for (String route : ROUTES){
+            requestMetrics.register(route);
+        }
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         // gather info about the request
         String method = exchange.getRequestMethod();
-        String requestURI = exchange.getRequestURI().toString(); // the url the client sent
-        InetAddress remoteAddress = exchange.getRemoteAddress().getAddress();
-
-        BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody()));
-        OutputStream out = exchange.getResponseBody();
+        String requestURI = exchange.getRequestURI().getRawPath(); // the url the client sent, minus any query string
 
         // split the url the client sent to find what kind of response it wants, and an argument, if any
         String[] pathComponents = requestURI.substring(1).split("/");
@@ -39,18 +69,72 @@ public class RequestHandler implements HttpHandler {
             requestArgument = pathComponents[1];
         }
 
+        Metrics.Operation route = requestMetrics.get(requestKeyword);
+        long start = route.begin();
+        try {
+            handleRequest(exchange, method, requestKeyword, requestArgument);
+        }
+        catch (IOException | RuntimeException e){ // the exchange is dropped without a response
+            route.error();
+            throw e;
+        }
+        finally {
+            route.end(start);
+        }
+    }
+
+    Metrics getMetrics(){
+        return requestMetrics;
+    }
+
+    private void handleRequest(HttpExchange exchange, String method, String requestKeyword, String requestArgument)
+            throws IOException {
+        Map<String, String> queryParameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        InetAddress remoteAddress = exchange.getRemoteAddress().getAddress();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody()));
+
+        if (method.equalsIgnoreCase("GET") && requestKeyword.equals("metrics")) {
+            sendMetrics(exchange);
+            return;
+        }
+
+        // a subscriber's connection stays open after this returns, but its thread goes back to the pool. browsers
+        // reconnect with a Last-Event-ID header; other clients can pass the last ID they saw as ?since=
+        if (method.equalsIgnoreCase("GET") && requestKeyword.equals("changes")) {
+            String lastEventID = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (lastEventID == null) {
+                lastEventID = queryParameters.get("since");
+            }
+            if (!changeFeed.subscribe(exchange, lastEventID)) { // too many subscribers
+                sendResponse(exchange, 200, STATUS_NOT_OK);
+            }
+            return;
+        }
+
+        if (method.equalsIgnoreCase("GET") && requestKeyword.equals("get_changes_since")) {
+            streamChanges(exchange, requestArgument);
+            return;
+        }
+
+        if (method.equalsIgnoreCase("GET") && isVersionedRequest(requestKeyword)) {
+            sendTaskRead(exchange, requestKeyword, requestArgument, queryParameters, remoteAddress);
+            return;
+        }
+
         String response;
         int responseCode;
 
         // use the handling method appropriate to the request to make the response
         switch (method.toUpperCase()) {
             case "GET": {
-                response = handleGetRequest(requestKeyword, requestArgument, remoteAddress);
+                response = handleGetRequest(requestKeyword, requestArgument, remoteAddress, new HashSet<>());
                 responseCode = 200;
                 break;
             }
             case "POST": {
-                response = handlePostRequest(requestKeyword, in, remoteAddress);
+                String sessionToken = getSessionToken(exchange);
+                response = handlePostRequest(requestKeyword, in, remoteAddress, sessionToken);
                 responseCode = 200;
                 break;
             }
@@ -61,14 +145,119 @@ public class RequestHandler implements HttpHandler {
             }
         }
 
-        // configure and send headers, then send the response body
+        sendResponse(exchange, responseCode, response);
+    }
+
+    // configure and send headers, then send the response body
+    private void sendResponse(HttpExchange exchange, int responseCode, String response) throws IOException {
+        sendResponse(exchange, responseCode, response.getBytes());
+    }
+
+    private void sendResponse(HttpExchange exchange, int responseCode, byte[] body) throws IOException {
         exchange.getResponseHeaders().add("Content-Type", "application/json");
-        exchange.sendResponseHeaders(responseCode, response.getBytes().length);
-        out.write(response.getBytes());
+        compression.send(exchange, responseCode, body);
+    }
+
+    // answers a read of task data: with 304 Not Modified if the client's copy is current, from the cache if the
+    // response is there, and otherwise from the database, caching what was sent
+    private void sendTaskRead(HttpExchange exchange, String requestKeyword, String requestArgument,
+                              Map<String, String> queryParameters, InetAddress remoteAddress) throws IOException {
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        boolean taskList = isTaskListRequest(requestKeyword);
+
+        // a request that will be refused gets neither a tag nor a 304, so a client never keeps or revalidates a
+        // refusal as if it were data
+        int afterID = Database.FIRST_PAGE;
+        int limit = Database.NO_LIMIT;
+        if (taskList && (queryParameters.containsKey("limit") || queryParameters.containsKey("cursor"))) {
+            try {
+                limit = parseLimit(queryParameters.get("limit"));
+                afterID = decodeCursor(queryParameters.get("cursor"));
+            }
+            catch (IllegalArgumentException e) {
+                sendResponse(exchange, 200, STATUS_NOT_OK);
+                return;
+            }
+        }
+        else if (!taskList && !hasValidArgument(requestKeyword, requestArgument)) {
+            sendResponse(exchange, 200, handleGetRequest(requestKeyword, requestArgument, remoteAddress,
+                    new HashSet<>()));
+            return;
+        }
+
+        long version = tasksDB.getDataVersion(); // read before any data, so it's never newer than the data sent
+
+        String eTag = makeETag(requestKeyword, requestArgument, rawQuery, version);
+        exchange.getResponseHeaders().add("ETag", eTag);
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache"); // always check the tag before reuse
+
+        if (matchesETag(exchange.getRequestHeaders().getFirst("If-None-Match"), eTag)) {
+            exchange.sendResponseHeaders(304, -1); // -1 means there is no body
+            exchange.close();
+            return;
+        }
+
+        String cacheKey = requestKeyword.toLowerCase() + "/" + requestArgument + "?" + rawQuery;
+        ResponseCache.Entry cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            sendCached(exchange, cached);
+            return;
+        }
+
+        Set<Object> tags = new HashSet<>(); // what the response is made from; see ResponseCache
+        byte[] body;
+
+        // task lists can be large, so they are written to the client as they are read instead of built in memory
+        if (taskList) {
+            body = streamTaskList(requestKeyword, afterID, limit, exchange, tags);
+        }
+        else {
+            body = handleGetRequest(requestKeyword, requestArgument, remoteAddress, tags).getBytes();
+            sendResponse(exchange, 200, body);
+        }
+
+        // responses without tasks in them aren't kept, since a database error looks the same as finding nothing
+        if (body != null && !tags.isEmpty()) {
+            responseCache.put(cacheKey, body, tags, version);
+        }
+    }
+
+    // sends a cached response, compressing it the first time a client asks for it in each encoding
+    private void sendCached(HttpExchange exchange, ResponseCache.Entry entry) throws IOException {
+        byte[] body = entry.getBody();
+        String encoding = compression.negotiate(exchange, body.length);
+
+        if (encoding != null) {
+            byte[] encodedBody = entry.getEncodedBody(encoding);
+            if (encodedBody == null) {
+                encodedBody = compression.compress(body, encoding);
+                responseCache.putEncoded(entry, encoding, encodedBody);
+            }
+            body = encodedBody;
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
         out.close();
     }
 
-    private String handleGetRequest(String requestKeyword, String requestArgument, InetAddress remoteAddress){
+    // every request and database metric, in Prometheus' text format
+    private void sendMetrics(HttpExchange exchange) throws IOException {
+        StringBuilder metrics = new StringBuilder();
+        requestMetrics.writePrometheus(metrics);
+        tasksDB.getMetrics().writePrometheus(metrics);
+
+        byte[] body = metrics.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        compression.send(exchange, 200, body);
+    }
+
+    // tags gets what a response with tasks in it was made from, for the cache
+    private String handleGetRequest(String requestKeyword, String requestArgument, InetAddress remoteAddress,
+                                    Set<Object> tags){
         List<Task> returnedTasks = new ArrayList<>();
 
         switch (requestKeyword.toLowerCase()){
@@ -77,22 +266,25 @@ public class RequestHandler implements HttpHandler {
                 return "{\"status_code\":0,\"service_name\":\"ShelvesServer\"}\n";
             }
             case "request_nonce": {
-                return auth.getNonce(remoteAddress);
+                String nonce = auth.getNonce(remoteAddress);
+                if (nonce == null) { // too many nonces are outstanding
+                    return STATUS_NOT_OK;
+                }
+                return nonce;
             }
-            // get all tasks
-            case "get_all_tasks": {
-                returnedTasks = tasksDB.getAllTasks();
-                break;
+            // report how many nonces have been issued, used, and expired
+            case "get_nonce_stats": {
+                JSONObject json = new JSONObject();
+                json.put("status_code", 0);
+                json.put("nonces", auth.getNonceStore().getStats());
+                return json.toString();
             }
-            // get complete tasks
-            case "get_complete_tasks": {
-                returnedTasks = tasksDB.getCompleteTasks();
-                break;
-            }
-            // get incomplete tasks
-            case "get_incomplete_tasks": {
-                returnedTasks = tasksDB.getIncompleteTasks();
-                break;
+            // report database connection pool usage for monitoring
+            case "get_pool_stats": {
+                JSONObject json = new JSONObject();
+                json.put("status_code", 0);
+                json.put("pool", tasksDB.getPoolStats().toJSON());
+                return json.toString();
             }
             // get a specific task by ID
             case "get_task": {
@@ -108,10 +300,10 @@ public class RequestHandler implements HttpHandler {
                 }
                 break;
             }
-            // get tasks whose names contain the query
+            // get tasks whose names, descriptions or requirements match the query
             case "search":
                 if (requestArgument != null){
-                    returnedTasks = tasksDB.search(requestArgument);
+                    returnedTasks = tasksDB.search(URLDecoder.decode(requestArgument, StandardCharsets.UTF_8));
                 }
                 else {
                     return STATUS_NOT_OK;
@@ -121,13 +313,9 @@ public class RequestHandler implements HttpHandler {
             case "get_dependencies": {
                 if (requestArgument != null) {
                     int ID = Integer.parseInt(requestArgument);
-                    List<String> dependencies = tasksDB.getDependencies(ID);
+                    List<Task> dependencies = tasksDB.getDependencyTasks(ID);
                     if (dependencies != null) {
-                        for (String dependency : dependencies) {
-                            int dependencyID = Integer.parseInt(dependency);
-                            Task dependencyTask = tasksDB.getTask(dependencyID);
-                            returnedTasks.add(dependencyTask);
-                        }
+                        returnedTasks = dependencies;
                     }
                 }
                 else {
@@ -139,12 +327,47 @@ public class RequestHandler implements HttpHandler {
             case "get_dependents": {
                 if (requestArgument != null) {
                     int ID = Integer.parseInt(requestArgument);
-                    List<String> dependents = tasksDB.getDependents(ID);
+                    List<Task> dependents = tasksDB.getDependentTasks(ID);
                     if (dependents != null) {
-                        for (String dependent : dependents) {
-                            int dependentID = Integer.parseInt(dependent);
-                            Task dependentTask = tasksDB.getTask(dependentID);
-                            returnedTasks.add(dependentTask);
+                        returnedTasks = dependents;
+                    }
+                }
+                else {
+                    return STATUS_NOT_OK;
+                }
+                break;
+            }
+            // get everything a task depends on, directly or not, in an order it can be done in
+            case "get_all_dependencies": {
+                if (requestArgument != null) {
+                    List<Task> dependencies = tasksDB.getAllDependencyTasks(Integer.parseInt(requestArgument));
+                    if (dependencies != null) {
+                        returnedTasks = dependencies;
+                    }
+                }
+                else {
+                    return STATUS_NOT_OK;
+                }
+                break;
+            }
+            // get every task ID in an order the tasks can be done in; answers from memory, so it sends IDs only
+            case "topological_order": {
+                int[][] order = tasksDB.getTopologicalOrder();
+                JSONObject json = new JSONObject();
+                json.put("status_code", 0);
+                json.put("order", new JSONArray(order[0]));
+                json.put("unordered", new JSONArray(order[1])); // in or behind a dependency cycle
+                return json.toString();
+            }
+            // get the chain of unfinished dependencies that decides when a task can be finished
+            case "critical_path": {
+                if (requestArgument != null) {
+                    int ID = Integer.parseInt(requestArgument);
+                    List<Task> path = tasksDB.getCriticalPath(ID);
+                    if (path != null && !path.isEmpty()) {
+                        returnedTasks = path;
+                        for (int dependencyID : tasksDB.getAllDependencyIDs(ID)) {
+                            tags.add(dependencyID); // a change to any of them can change the path
                         }
                     }
                 }
@@ -155,6 +378,18 @@ public class RequestHandler implements HttpHandler {
             }
         }
 
+        if (!returnedTasks.isEmpty()) {
+            if (requestKeyword.equalsIgnoreCase("search")) {
+                tags.add(ResponseCache.SEARCH_RESULTS);
+            }
+            else {
+                tags.add(Integer.parseInt(requestArgument)); // the task asked about, whose edges decide the results
+            }
+            for (Task task : returnedTasks) {
+                tags.add(task.getID());
+            }
+        }
+
         JSONObject json;
 
         // convert all tasks to JSON objects
@@ -167,9 +402,239 @@ public class RequestHandler implements HttpHandler {
         return json.toString();
     }
 
-    private String handlePostRequest(String requestKeyword, BufferedReader in, InetAddress remoteAddress) throws IOException{
-        String authHash = in.readLine(); // first line of the request body will be the pw hash
-        boolean authenticated = auth.checkCredentials(authHash, remoteAddress);
+    // GETs whose responses depend only on the tasks and their dependencies
+    private boolean isVersionedRequest(String requestKeyword){
+        switch (requestKeyword.toLowerCase()){
+            case "get_task":
+            case "search":
+            case "get_dependencies":
+            case "get_dependents":
+            case "get_all_dependencies":
+            case "topological_order":
+            case "critical_path":
+                return true;
+        }
+        return isTaskListRequest(requestKeyword);
+    }
+
+    // whether handleGetRequest can answer a versioned request with data rather than refuse it or fail
+    private boolean hasValidArgument(String requestKeyword, String requestArgument){
+        switch (requestKeyword.toLowerCase()){
+            case "topological_order":
+                return true;
+            case "search":
+                return requestArgument != null;
+        }
+        try {
+            Integer.parseInt(requestArgument);
+            return true;
+        }
+        catch (NumberFormatException e) { // also thrown for null
+            return false;
+        }
+    }
+
+    // a weak tag, since the same data may be sent in different encodings. version is read before the response's
+    // data is, so a write that lands in between makes the tag older than the data, never newer
+    private String makeETag(String requestKeyword, String requestArgument, String rawQuery, long version){
+        int request = Objects.hash(requestKeyword.toLowerCase(), requestArgument, rawQuery);
+        return "W/\"" + eTagPrefix + "-" + version + "-" + Integer.toHexString(request) + "\"";
+    }
+
+    // whether an If-None-Match header, which may list several tags or be "*", includes eTag
+    private boolean matchesETag(String ifNoneMatch, String eTag){
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || stripWeakPrefix(tag).equals(stripWeakPrefix(eTag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // If-None-Match compares tags weakly, ignoring whether either is marked W/
+    private String stripWeakPrefix(String tag){
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private boolean isTaskListRequest(String requestKeyword){
+        switch (requestKeyword.toLowerCase()){
+            case "get_all_tasks":
+            case "get_complete_tasks":
+            case "get_incomplete_tasks":
+            case "get_ready_tasks":
+                return true;
+        }
+        return false;
+    }
+
+    // sends a task list as its rows come out of the database, chunked and compressed unless it's small.
+    // limit and afterID come from the limit and cursor the client passed; without them the list is sent whole.
+    // returns the body that was sent, for the cache, or null if it wasn't all sent or was too big to keep
+    private byte[] streamTaskList(String requestKeyword, int afterID, int limit, HttpExchange exchange,
+                                  Set<Object> tags) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+
+        ResponseCache.Recorder recorder = new ResponseCache.Recorder(compression.open(exchange, 200),
+                responseCache.getMaxEntryBytes());
+        boolean complete = false;
+
+        try (TaskStreamWriter writer = new TaskStreamWriter(recorder)) {
+            Database.TaskConsumer consumer = task -> {
+                writer.write(task);
+                tags.add(task.getID());
+            };
+
+            try {
+                switch (requestKeyword.toLowerCase()) {
+                    // get all tasks
+                    case "get_all_tasks": {
+                        tags.add(ResponseCache.ALL_TASKS);
+                        complete = tasksDB.streamAllTasks(afterID, limit, consumer);
+                        break;
+                    }
+                    // get complete tasks
+                    case "get_complete_tasks": {
+                        tags.add(ResponseCache.COMPLETE_TASKS);
+                        complete = tasksDB.streamCompleteTasks(afterID, limit, consumer);
+                        break;
+                    }
+                    // get incomplete tasks
+                    case "get_incomplete_tasks": {
+                        tags.add(ResponseCache.INCOMPLETE_TASKS);
+                        complete = tasksDB.streamIncompleteTasks(afterID, limit, consumer);
+                        break;
+                    }
+                    // get incomplete tasks whose dependencies are all complete
+                    case "get_ready_tasks": {
+                        tags.add(ResponseCache.READY_TASKS);
+                        complete = tasksDB.streamReadyTasks(afterID, limit, consumer);
+                        break;
+                    }
+                }
+            }
+            finally {
+                // a list cut short by an error isn't an answer, however many tasks went out before it
+                if (!complete) {
+                    writer.setStatusCode(1);
+                }
+                // a full page means there may be more, so tell the client where the next one starts
+                else if (limit != Database.NO_LIMIT && writer.getCount() == limit) {
+                    writer.setNextCursor(encodeCursor(writer.getLastID()));
+                }
+            }
+        }
+        return complete ? recorder.getBytes() : null;
+    }
+
+    // sends the tasks created or changed after the data version in the URL, and the IDs of those removed since,
+    // with the version the client is now up to date with: it passes that version the next time. the version is
+    // read first, so anything that changes while the response is read is sent again next time rather than missed
+    private void streamChanges(HttpExchange exchange, String requestArgument) throws IOException {
+        long version = tasksDB.getDataVersion();
+        long since;
+        try {
+            since = Long.parseLong(requestArgument);
+        }
+        catch (NumberFormatException e) {
+            since = -1;
+        }
+        if (since < 0 || since > version) { // not a version this database has had
+            sendResponse(exchange, 200, STATUS_NOT_OK);
+            return;
+        }
+
+        int[] removedIDs = tasksDB.getRemovedTaskIDs(since);
+        if (removedIDs == null) {
+            sendResponse(exchange, 200, STATUS_NOT_OK);
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+
+        try (TaskStreamWriter writer = new TaskStreamWriter(compression.open(exchange, 200))) {
+            // the tasks are streamed, so a failure partway is only known at the end; without a version the
+            // client knows not to move on from the one it asked about
+            if (tasksDB.streamChangedTasks(since, writer::write)) {
+                writer.setStatusCode(0);
+                writer.put("version", version);
+                writer.put("removed", removedIDs);
+            }
+            else {
+                writer.setStatusCode(1);
+            }
+        }
+    }
+
+    // page size requested by the client, capped at MAX_PAGE_SIZE
+    private int parseLimit(String limitParameter){
+        if (limitParameter == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        int limit = Integer.parseInt(limitParameter);
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    // cursors are opaque to clients so the paging key can change without breaking them
+    private String encodeCursor(int lastID){
+        byte[] cursor = (CURSOR_PREFIX + lastID).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor);
+    }
+
+    // the ID a page should start after; a missing cursor means the first page
+    private int decodeCursor(String cursor){
+        if (cursor == null) {
+            return Database.FIRST_PAGE;
+        }
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        if (!decoded.startsWith(CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("not a task list cursor");
+        }
+        return Integer.parseInt(decoded.substring(CURSOR_PREFIX.length()));
+    }
+
+    // splits a query string like "limit=50&cursor=abc" into its parameters
+    private Map<String, String> parseQuery(String rawQuery){
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+            else if (!pair.isEmpty()) {
+                parameters.put(URLDecoder.decode(pair, StandardCharsets.UTF_8), "");
+            }
+        }
+        return parameters;
+    }
+
+    // a request with a valid session token is authenticated by it and its body is just the payload; otherwise
+    // the first line of the body is the hash made from a nonce, and the nonce; see checkCredentials
+    private String handlePostRequest(String requestKeyword, BufferedReader in, InetAddress remoteAddress,
+                                     String sessionToken) throws IOException{
+        boolean authenticated;
+        boolean usedNonce = false;
+
+        if (sessionToken != null) {
+            authenticated = auth.checkSessionToken(sessionToken);
+        }
+        else {
+            String credentials = in.readLine(); // first line of the request body will be the pw hash and nonce
+            authenticated = auth.checkCredentials(credentials, remoteAddress);
+            usedNonce = true;
+        }
 
         if (authenticated) { // only allow access if authenticated
             // read the remainder of the request body
@@ -182,7 +647,16 @@ public class RequestHandler implements HttpHandler {
 
             switch (requestKeyword) {
                 case "auth": { // confirms that the submitted credential is valid; does no other action
-                    return STATUS_OK;
+                    if (!usedNonce) {
+                        return STATUS_OK;
+                    }
+                    // a nonce-based auth also gets a session token for the requests that follow
+                    String newToken = auth.issueSessionToken();
+                    JSONObject json = new JSONObject();
+                    json.put("status_code", 0);
+                    json.put("session_token", newToken);
+                    json.put("session_expires", SessionTokens.getExpiry(newToken));
+                    return json.toString() + "\n";
                 }
                 case "add_task": {
                     Task newTask = parseTaskJSON(payload);
@@ -192,6 +666,9 @@ public class RequestHandler implements HttpHandler {
                     }
                     return STATUS_NOT_OK;
                 }
+                case "add_tasks": {
+                    return addTasks(payload);
+                }
                 case "add_dependency": {
                     JSONObject json = new JSONObject(payload);
                     int dependentID = json.getInt("dependentID");
@@ -200,6 +677,13 @@ public class RequestHandler implements HttpHandler {
                     if (tasksDB.addDependency(dependentID, dependencyID)) {
                         return STATUS_OK;
                     }
+                    int[] cycle = tasksDB.findDependencyCycle(dependentID, dependencyID);
+                    if (cycle != null) { // say which tasks already depend on each other, so the client can show it
+                        JSONObject jsonOut = new JSONObject();
+                        jsonOut.put("status_code", 1);
+                        jsonOut.put("cycle", new JSONArray(cycle));
+                        return jsonOut.toString() + "\n";
+                    }
                     return STATUS_NOT_OK;
                 }
                 case "remove_dependency": {
@@ -245,33 +729,136 @@ public class RequestHandler implements HttpHandler {
         return STATUS_NOT_OK;
     }
 
+    // the token from an "Authorization: Bearer <token>" header, or null if there isn't one
+    private String getSessionToken(HttpExchange exchange){
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+        if (authorization != null && authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            return authorization.substring(BEARER_PREFIX.length()).trim();
+        }
+        return null;
+    }
+
+    // adds a batch of tasks sent either as a JSON array or as a sequence of JSON objects (NDJSON). each task can
+    // carry a client-side "key", which the other tasks in the batch list in "dependency_keys" to depend on it
+    // before it has an ID; "dependencies" still holds IDs of tasks already in the database. the response maps
+    // each task's key to the ID it was given, and lists all the IDs in the order the tasks were sent
+    private String addTasks(String payload){
+        List<JSONObject> taskObjects = new ArrayList<>();
+        try {
+            JSONTokener tokener = new JSONTokener(payload);
+            Object value = tokener.nextValue();
+
+            if (value instanceof JSONArray) {
+                for (Object task : (JSONArray) value) {
+                    taskObjects.add((JSONObject) task);
+                }
+            }
+            else {
+                taskObjects.add((JSONObject) value);
+                while (tokener.nextClean() != 0) {
+                    tokener.back();
+                    taskObjects.add((JSONObject) tokener.nextValue());
+                }
+            }
+        }
+        catch (JSONException | ClassCastException e) {
+            return STATUS_NOT_OK;
+        }
+        if (taskObjects.isEmpty()) {
+            return STATUS_NOT_OK;
+        }
+
+        // positions of the keyed tasks in the batch
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < taskObjects.size(); i++) {
+            String key = taskObjects.get(i).optString("key", null);
+            if (key != null && positions.put(key, i) != null) {
+                return STATUS_NOT_OK; // two tasks with the same key
+            }
+        }
+
+        List<Task> tasks = new ArrayList<>();
+        int[][] batchDependencies = new int[taskObjects.size()][];
+        try {
+            for (int i = 0; i < taskObjects.size(); i++) {
+                JSONObject json = taskObjects.get(i);
+                tasks.add(parseTaskJSON(json));
+
+                JSONArray dependencyKeys = json.optJSONArray("dependency_keys");
+                batchDependencies[i] = new int[dependencyKeys == null ? 0 : dependencyKeys.length()];
+                for (int j = 0; j < batchDependencies[i].length; j++) {
+                    Integer position = positions.get(dependencyKeys.get(j).toString());
+                    if (position == null) {
+                        return STATUS_NOT_OK; // refers to a task that isn't in the batch
+                    }
+                    batchDependencies[i][j] = position;
+                }
+            }
+        }
+        catch (JSONException e) {
+            return STATUS_NOT_OK;
+        }
+
+        int[] IDs = tasksDB.addTasks(tasks, batchDependencies);
+        if (IDs == null) {
+            return STATUS_NOT_OK;
+        }
+
+        JSONObject jsonOut = new JSONObject();
+        JSONObject keys = new JSONObject();
+        for (Map.Entry<String, Integer> entry : positions.entrySet()) {
+            keys.put(entry.getKey(), IDs[entry.getValue()]);
+        }
+        jsonOut.put("status_code", 0);
+        jsonOut.put("ids", new JSONArray(IDs));
+        jsonOut.put("keys", keys);
+        return jsonOut.toString() + "\n";
+    }
+
     // takes the JSON from the client and makes a Task out of it
     private Task parseTaskJSON(String payload){
-        JSONObject json = new JSONObject(payload);
+        return parseTaskJSON(new JSONObject(payload));
+    }
+
+    // a task's ID, dependencies and dependents are optional, since tasks sent to add_tasks don't have them yet
+    private Task parseTaskJSON(JSONObject json){
 
         // the easy ones
-        int ID = json.getInt("id");
+        int ID = json.optInt("id");
         String taskName = json.getString("task_name");
         String description = json.getString("description");
-        Date dateCreated = new Date(json.getLong("date_created"));
-        Date dateDue = new Date(json.getLong("date_due"));
+        long dateCreated = json.getLong("date_created");
+        long dateDue = json.getLong("date_due");
 
         // convert the JSONArrays to Lists
         List<String> requirements = new ArrayList<>();
         for (Object requirement : json.getJSONArray("requirements")){
             requirements.add(requirement.toString());
         }
-        List<String> dependencies = new ArrayList<>();
-        for (Object dependency : json.getJSONArray("dependencies")){
-            dependencies.add(dependency.toString());
-        }
-        List<String> dependents = new ArrayList<>();
-        for (Object dependent : json.getJSONArray("dependents")){
-            dependents.add(dependent.toString());
-        }
+        int[] dependencies = parseIDs(optJSONArray(json, "dependencies"));
+        int[] dependents = parseIDs(optJSONArray(json, "dependents"));
 
         return new Task(ID, taskName, description, requirements, dateCreated,
-                dateDue, false, false, dependencies, dependents);
+                dateDue, 0, false, false, null, dependencies, dependents);
+    }
+
+    // IDs are sent as strings, but numbers are taken too; anything else is a JSONException
+    private int[] parseIDs(JSONArray jsonArray){
+        int[] IDs = new int[jsonArray.length()];
+        for (int i = 0; i < IDs.length; i++){
+            IDs[i] = jsonArray.getInt(i);
+        }
+        return IDs;
+    }
+
+    // the array under key, or an empty one if the key is missing
+    private JSONArray optJSONArray(JSONObject json, String key){
+        JSONArray jsonArray = json.optJSONArray(key);
+        if (jsonArray == null){
+            return new JSONArray();
+        }
+        return jsonArray;
     }
 
     // makes the JSONObject that will be sent to the client when they request task info
@@ -0,0 +1,236 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// responses to task reads, kept ready to send, so a repeated read touches neither the database nor org.json.
+// once the entries add up to more than maxBytes the least recently used are dropped. each entry is tagged with
+// what it was made from: the IDs of the tasks in it, the task it was asked about, and for lists and searches which
+// tasks they hold. a change drops exactly the entries with a tag it touched
+class ResponseCache implements DatabaseListener {
+
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    static final int DEFAULT_MAX_ENTRY_BYTES = 4 * 1024 * 1024; // bigger responses are streamed every time instead
+
+    // tags for which tasks a response holds, as opposed to what's in them
+    static final String ALL_TASKS = "all_tasks";
+    static final String COMPLETE_TASKS = "complete_tasks";
+    static final String INCOMPLETE_TASKS = "incomplete_tasks";
+    static final String READY_TASKS = "ready_tasks";
+    static final String SEARCH_RESULTS = "search_results"; // changed by new tasks, since their text may match
+
+    private final Database tasksDB;
+    private final long maxBytes;
+    private final int maxEntryBytes;
+
+    // in access order, so the first entry is the least recently used. guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Object, Set<String>> keysByTag = new HashMap<>();
+    private long bytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder(); // dropped to make room
+    private final LongAdder invalidations = new LongAdder(); // dropped because of a change
+
+    ResponseCache(Database tasksDB){
+        this(tasksDB, DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+    }
+
+    // listens to tasksDB for changes; a maxBytes of 0 caches nothing
+    ResponseCache(Database tasksDB, long maxBytes, int maxEntryBytes){
+        this.tasksDB = tasksDB;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = (int) Math.min(maxEntryBytes, maxBytes);
+        tasksDB.addListener(this);
+    }
+
+    synchronized Entry get(String key){
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    // caches a response read after the database's data version was `version`. if the data has changed since,
+    // the response may be stale and the change may already have been passed to onChange, so it's not kept
+    synchronized void put(String key, byte[] body, Collection<Object> tags, long version){
+        if (body.length > maxEntryBytes || version != tasksDB.getDataVersion()) {
+            return;
+        }
+
+        remove(key);
+        Entry entry = new Entry(key, body, tags.toArray());
+        entries.put(key, entry);
+        bytes += body.length;
+        for (Object tag : entry.tags) {
+            keysByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+        }
+
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (bytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            Entry evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            forget(evicted);
+            evictions.increment();
+        }
+    }
+
+    // keeps a compressed copy of an entry's body with it, if the entry is still cached
+    synchronized void putEncoded(Entry entry, String encoding, byte[] encodedBody){
+        if (entry.cached && entry.encodedBodies.putIfAbsent(encoding, encodedBody) == null) {
+            bytes += encodedBody.length;
+        }
+    }
+
+    @Override
+    public synchronized void onChange(long version, Change change, int[] IDs, int[] relatedIDs){
+        for (int ID : IDs) {
+            invalidate(ID);
+        }
+        for (int ID : relatedIDs) {
+            invalidate(ID);
+        }
+
+        switch (change) {
+            case ADDED:
+            case REMOVED: {
+                invalidate(SEARCH_RESULTS);
+                invalidate(ALL_TASKS);
+                invalidate(COMPLETE_TASKS);
+                invalidate(INCOMPLETE_TASKS);
+                break;
+            }
+            case COMPLETED: {
+                invalidate(COMPLETE_TASKS);
+                invalidate(INCOMPLETE_TASKS);
+                break;
+            }
+        }
+        if (change != Change.CLAIMED) {
+            invalidate(READY_TASKS); // every other change can make tasks ready or stop them being ready
+        }
+    }
+
+    private void invalidate(Object tag){
+        Set<String> keys = keysByTag.get(tag);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys.toArray(new String[0])) {
+            remove(key);
+            invalidations.increment();
+        }
+    }
+
+    private void remove(String key){
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            forget(entry);
+        }
+    }
+
+    // takes an entry that's no longer in entries out of the tag index and the byte count
+    private void forget(Entry entry){
+        entry.cached = false;
+        bytes -= entry.size();
+
+        for (Object tag : entry.tags) {
+            Set<String> keys = keysByTag.get(tag);
+            keys.remove(entry.key);
+            if (keys.isEmpty()) {
+                keysByTag.remove(tag);
+            }
+        }
+    }
+
+    // counts and sizes for /metrics
+    void registerMetrics(Metrics metrics){
+        metrics.counter("shelves_response_cache_hits_total", "Task reads answered from the cache", hits::sum);
+        metrics.counter("shelves_response_cache_misses_total", "Task reads not in the cache", misses::sum);
+        metrics.counter("shelves_response_cache_evictions_total", "Cached responses dropped to make room",
+                evictions::sum);
+        metrics.counter("shelves_response_cache_invalidations_total", "Cached responses dropped by a change",
+                invalidations::sum);
+        metrics.gauge("shelves_response_cache_entries", "Responses in the cache", this::getEntryCount);
+        metrics.gauge("shelves_response_cache_bytes", "Bytes of responses in the cache", this::getBytes);
+    }
+
+    synchronized int getEntryCount() { return entries.size(); }
+    synchronized long getBytes() { return bytes; }
+    int getMaxEntryBytes() { return maxEntryBytes; }
+
+    // a cached response body, plus copies of it compressed for the encodings clients have asked for
+    static class Entry {
+
+        private final String key;
+        private final byte[] body;
+        private final Object[] tags;
+        private final Map<String, byte[]> encodedBodies = new ConcurrentHashMap<>(2); // added to under the cache
+        private boolean cached = true; // guarded by the cache
+
+        private Entry(String key, byte[] body, Object[] tags){
+            this.key = key;
+            this.body = body;
+            this.tags = tags;
+        }
+
+        byte[] getBody() { return body; }
+
+        // the body compressed with encoding, or null if it hasn't been yet
+        byte[] getEncodedBody(String encoding){
+            return encodedBodies.get(encoding);
+        }
+
+        private long size(){
+            long size = body.length;
+            for (byte[] encodedBody : encodedBodies.values()) {
+                size += encodedBody.length;
+            }
+            return size;
+        }
+    }
+
+    // passes a response through to the client while keeping a copy of it to cache, giving up on the copy once
+    // it's bigger than the cache would take
+    static class Recorder extends FilterOutputStream {
+
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        Recorder(OutputStream out, int limit){
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            if (copy != null) {
+                if (copy.size() + length > limit) {
+                    copy = null;
+                }
+                else {
+                    copy.write(bytes, offset, length);
+                }
+            }
+        }
+
+        // everything written, or null if it was too big to keep
+        byte[] getBytes(){
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// compresses response bodies for clients that send Accept-Encoding with gzip or deflate. bodies smaller than
+// minSize are sent as they are, since compressing them saves less than it costs. every Deflater holds native
+// memory until it's ended, so they're kept in a pool and reset between responses instead of made for each one
+class ResponseCompression {
+
+    static final int DEFAULT_MIN_SIZE = 1024;
+    static final int DISABLED = -1; // a minSize that turns compression off
+
+    private static final int POOL_SIZE = 16; // deflaters kept for each encoding; more are made if needed
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final int minSize;
+    private final int level;
+
+    // gzip wraps raw deflate data in its own header and trailer; HTTP's "deflate" is the zlib format
+    private final BlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Deflater> zlibDeflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    ResponseCompression(){
+        this(DEFAULT_MIN_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    ResponseCompression(int minSize, int level){
+        this.minSize = minSize;
+        this.level = level;
+    }
+
+    // sends a body whose length is known, compressing it first if it's big enough and the client accepts it
+    void send(HttpExchange exchange, int responseCode, byte[] body) throws IOException {
+        String encoding = negotiate(exchange, body.length);
+
+        if (encoding != null) {
+            body = compress(body, encoding);
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponseHeaders(responseCode, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // a stream for a body whose length isn't known until it's written. if the client accepts compression, the
+    // first minSize bytes are held back: a body that ends before then is sent as it is, and a longer one is
+    // sent compressed. headers are sent when the stream decides, so set them before writing to it
+    OutputStream open(HttpExchange exchange, int responseCode) throws IOException {
+        return new ResponseStream(exchange, responseCode, negotiate(exchange));
+    }
+
+    // the encoding to send a body of this length in, or null to send it uncompressed. callers that compress the
+    // body themselves set Content-Encoding to the encoding returned
+    String negotiate(HttpExchange exchange, int length){
+        String encoding = negotiate(exchange);
+        return length >= minSize ? encoding : null;
+    }
+
+    byte[] compress(byte[] body, String encoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (OutputStream out = compress(compressed, encoding)) {
+            out.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    // the encoding the client accepts, or null if it doesn't accept one or compression is off
+    private String negotiate(HttpExchange exchange){
+        if (minSize == DISABLED) {
+            return null;
+        }
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding"); // caches must keep a copy per encoding
+        return chooseEncoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    }
+
+    // the encoding in an Accept-Encoding header with the highest q-value, preferring gzip on a tie; an
+    // encoding with q=0 is refused, and * stands for anything not listed
+    static String chooseEncoding(String acceptEncoding){
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        double gzip = -1;
+        double deflate = -1;
+        double anything = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] parameters = part.split(";");
+            String coding = parameters[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    }
+                    catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+
+            switch (coding) {
+                case "gzip":
+                case "x-gzip": {
+                    gzip = q;
+                    break;
+                }
+                case "deflate": {
+                    deflate = q;
+                    break;
+                }
+                case "*": {
+                    anything = q;
+                    break;
+                }
+            }
+        }
+
+        if (gzip < 0) {
+            gzip = anything;
+        }
+        if (deflate < 0) {
+            deflate = anything;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return "gzip";
+        }
+        if (deflate > 0) {
+            return "deflate";
+        }
+        return null;
+    }
+
+    private OutputStream compress(OutputStream out, String encoding) throws IOException {
+        boolean gzip = encoding.equals("gzip");
+        Deflater deflater = (gzip ? gzipDeflaters : zlibDeflaters).poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, gzip); // gzip needs the raw deflate format, without zlib's wrapper
+        }
+        try {
+            return new CompressingStream(out, deflater, gzip);
+        }
+        catch (IOException | RuntimeException e) { // writing the gzip header failed
+            release(deflater, gzip);
+            throw e;
+        }
+    }
+
+    // deflaters waiting in the pool for an encoding
+    int getPooledDeflaters(String encoding){
+        return (encoding.equals("gzip") ? gzipDeflaters : zlibDeflaters).size();
+    }
+
+    private void release(Deflater deflater, boolean gzip){
+        deflater.reset();
+        if (!(gzip ? gzipDeflaters : zlibDeflaters).offer(deflater)) {
+            deflater.end(); // the pool is full
+        }
+    }
+
+    // compresses into out with a pooled Deflater, which goes back to the pool when the stream is closed.
+    // GZIPOutputStream always makes its own Deflater, so the gzip header and trailer are written here
+    private class CompressingStream extends DeflaterOutputStream {
+
+        private final boolean gzip;
+        private final CRC32 crc = new CRC32();
+        private boolean released = false;
+
+        CompressingStream(OutputStream out, Deflater deflater, boolean gzip) throws IOException {
+            super(out, deflater, BUFFER_SIZE);
+            this.gzip = gzip;
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            super.write(bytes, offset, length);
+            if (gzip) {
+                crc.update(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished()) {
+                return;
+            }
+            super.finish();
+
+            if (gzip) { // the checksum and length of the uncompressed data, little-endian
+                writeInt((int) crc.getValue());
+                writeInt((int) def.getBytesRead());
+            }
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value);
+            out.write(value >>> 8);
+            out.write(value >>> 16);
+            out.write(value >>> 24);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                if (!released) {
+                    released = true;
+                    release(def, gzip);
+                }
+            }
+        }
+    }
+
+    // the response body for open(): buffers up to minSize bytes, then sends the headers and starts compressing
+    private class ResponseStream extends OutputStream {
+
+        private final HttpExchange exchange;
+        private final int responseCode;
+        private final String encoding;
+        private ByteArrayOutputStream pending; // null once the headers are sent
+        private OutputStream out;
+
+        ResponseStream(HttpExchange exchange, int responseCode, String encoding) throws IOException {
+            this.exchange = exchange;
+            this.responseCode = responseCode;
+            this.encoding = encoding;
+
+            if (encoding == null) { // nothing to decide, so send it chunked as it's written
+                exchange.sendResponseHeaders(responseCode, 0);
+                out = exchange.getResponseBody();
+            }
+            else {
+                pending = new ByteArrayOutputStream(minSize);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (pending != null && pending.size() + length >= minSize) {
+                ByteArrayOutputStream held = pending;
+                pending = null; // the headers are sent, even if the rest fails, so close() mustn't send them again
+                exchange.getResponseHeaders().set("Content-Encoding", encoding);
+                exchange.sendResponseHeaders(responseCode, 0); // a length of 0 means the body is chunked
+                out = compress(exchange.getResponseBody(), encoding);
+                held.writeTo(out);
+            }
+
+            if (pending != null) {
+                pending.write(bytes, offset, length);
+            }
+            else {
+                out.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (pending != null) { // the whole body was smaller than minSize
+                    exchange.sendResponseHeaders(responseCode, pending.size());
+                    out = exchange.getResponseBody();
+                    pending.writeTo(out);
+                    pending = null;
+                }
+            }
+            finally {
+                if (out != null) { // closing a compressing stream returns its deflater, even after a failure
+                    out.close();
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,10 @@
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
 
 public class Server {
 
@@ -12,39 +12,131 @@ public class Server {
     private static final String DATABASE_URL = "jdbc:sqlite:tasksDB.sqlite";
     private static final Path AUTH_FILE_PATH = Path.of("auth.txt");
 
+    // request executor settings, overridable with -D<name>=<value> on the command line
+    private static final String EXECUTOR_MODE = System.getProperty("shelves.executor", "pool"); // "pool" or "virtual"
+    private static final int POOL_CORE_THREADS = Integer.getInteger("shelves.pool.coreThreads", 4);
+    private static final int POOL_MAX_THREADS = Integer.getInteger("shelves.pool.maxThreads", 8);
+    private static final int POOL_QUEUE_SIZE = Integer.getInteger("shelves.pool.queueSize", 100);
+    private static final int POOL_KEEP_ALIVE_SECONDS = Integer.getInteger("shelves.pool.keepAliveSeconds", 30);
+    private static final int VIRTUAL_MAX_CONCURRENT = Integer.getInteger("shelves.virtual.maxConcurrent", 8);
+
+    // how long a session token from /auth stays valid
+    static final long SESSION_TTL_SECONDS = Long.getLong("shelves.session.ttlSeconds",
+            SessionTokens.DEFAULT_TTL_SECONDS);
+
+    // responses of at least minSize bytes are compressed for clients that accept it; a minSize of -1 turns this off.
+    // level is the Deflater level, 1 (fastest) to 9 (smallest), or -1 for zlib's default of 6
+    private static final int COMPRESSION_MIN_SIZE = Integer.getInteger("shelves.compression.minSize",
+            ResponseCompression.DEFAULT_MIN_SIZE);
+    private static final int COMPRESSION_LEVEL = Integer.getInteger("shelves.compression.level",
+            Deflater.DEFAULT_COMPRESSION);
+
+    // serialized task reads kept in memory until a change makes them stale; a maxBytes of 0 turns the cache off
+    private static final long CACHE_MAX_BYTES = Long.getLong("shelves.cache.maxBytes",
+            ResponseCache.DEFAULT_MAX_BYTES);
+    private static final int CACHE_MAX_ENTRY_BYTES = Integer.getInteger("shelves.cache.maxEntryBytes",
+            ResponseCache.DEFAULT_MAX_ENTRY_BYTES);
+
+    // how many recent changes /changes keeps for clients that reconnect, and how many clients it serves at once
+    private static final int CHANGE_FEED_BUFFER_SIZE = Integer.getInteger("shelves.changes.bufferSize",
+            ChangeFeed.DEFAULT_BUFFER_SIZE);
+    private static final int CHANGE_FEED_MAX_SUBSCRIBERS = Integer.getInteger("shelves.changes.maxSubscribers",
+            ChangeFeed.DEFAULT_MAX_SUBSCRIBERS);
+
+    // one connection per request that can run at once, whichever executor is in use
+    static final int DATABASE_POOL_SIZE = Integer.getInteger("shelves.db.poolSize", 8);
+
     public static void main(String[] args) {
-        Database tasksDB = new Database(DATABASE_URL);
-        ServerSideAuthentication auth = new ServerSideAuthentication(AUTH_FILE_PATH);
+        Database tasksDB = new Database(DATABASE_URL, DATABASE_POOL_SIZE);
+        ServerSideAuthentication auth = new ServerSideAuthentication(AUTH_FILE_PATH, SESSION_TTL_SECONDS);
 
         try {
-            // setup http server
-            HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
-            RequestHandler handler = new RequestHandler(tasksDB, auth);
-
-            server.createContext("/test_connection", handler);
-            server.createContext("/request_nonce", handler);
-            server.createContext("/get_all_tasks", handler);
-            server.createContext("/get_complete_tasks", handler);
-            server.createContext("/get_incomplete_tasks", handler);
-            server.createContext("/get_task", handler);
-            server.createContext("/search", handler);
-            server.createContext("/get_dependencies", handler);
-            server.createContext("/get_dependents", handler);
-            server.createContext("/auth", handler);
-            server.createContext("/remove_task", handler);
-            server.createContext("/complete_task", handler);
-            server.createContext("/add_task", handler);
-            server.createContext("/add_dependency", handler);
-            server.createContext("/remove_dependency", handler);
-            server.createContext("/update_claim", handler);
-
-            server.setExecutor(new ThreadPoolExecutor
-                    (4, 8, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100)));
-            server.start();
+            start(PORT, tasksDB, auth);
             System.out.printf("ShelvesServer listening on port %s\n", PORT);
         }
         catch (IOException e){
             e.printStackTrace();
         }
     }
+
+    // serves tasksDB on port, or on a free port chosen by the system if port is 0; the port actually used is
+    // in the returned server's getAddress()
+    static HttpServer start(int port, Database tasksDB, ServerSideAuthentication auth) throws IOException {
+        // headers and body are written separately, so without TCP_NODELAY small responses wait on delayed ACKs.
+        // the http server reads this once, so it has to be set before the first server is made
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        // setup http server
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        ResponseCompression compression = new ResponseCompression(COMPRESSION_MIN_SIZE, COMPRESSION_LEVEL);
+        ResponseCache responseCache = new ResponseCache(tasksDB, CACHE_MAX_BYTES, CACHE_MAX_ENTRY_BYTES);
+        ChangeFeed changeFeed = new ChangeFeed(tasksDB, CHANGE_FEED_BUFFER_SIZE, CHANGE_FEED_MAX_SUBSCRIBERS);
+        RequestHandler handler = new RequestHandler(tasksDB, auth, compression, responseCache, changeFeed);
+
+        for (String route : RequestHandler.ROUTES) {
+            server.createContext("/" + route, handler);
+        }
+
+        Executor executor = createExecutor();
+        registerGauges(handler.getMetrics(), executor, tasksDB, auth);
+        responseCache.registerMetrics(handler.getMetrics());
+        changeFeed.registerMetrics(handler.getMetrics());
+        server.setExecutor(executor);
+
+        server.start();
+        return server;
+    }
+
+    // builds the executor that runs each exchange, as chosen by shelves.executor
+    private static Executor createExecutor(){
+        if (EXECUTOR_MODE.equalsIgnoreCase("virtual")) {
+            ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+            if (virtualThreads != null) {
+                System.out.printf("Running requests on virtual threads, at most %s at once\n", VIRTUAL_MAX_CONCURRENT);
+                return new LimitedExecutor(virtualThreads, VIRTUAL_MAX_CONCURRENT);
+            }
+            System.out.println("Virtual threads need Java 21 or later; using the thread pool instead");
+        }
+
+        System.out.printf("Running requests on %s-%s threads with a queue of %s\n",
+                POOL_CORE_THREADS, POOL_MAX_THREADS, POOL_QUEUE_SIZE);
+        return new ThreadPoolExecutor(POOL_CORE_THREADS, POOL_MAX_THREADS, POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(POOL_QUEUE_SIZE));
+    }
+
+    // gauges read when /metrics is requested: how backed up the executor is, and the connection pool and nonces
+    private static void registerGauges(Metrics metrics, Executor executor, Database tasksDB,
+                                       ServerSideAuthentication auth){
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            metrics.gauge("shelves_executor_queued", "Requests waiting for a thread", () -> pool.getQueue().size());
+            metrics.gauge("shelves_executor_active", "Threads running a request", pool::getActiveCount);
+            metrics.gauge("shelves_executor_threads", "Threads in the pool", pool::getPoolSize);
+        }
+        else if (executor instanceof LimitedExecutor) {
+            LimitedExecutor limited = (LimitedExecutor) executor;
+            metrics.gauge("shelves_executor_queued", "Requests waiting for a permit", limited::getWaiting);
+            metrics.gauge("shelves_executor_active", "Requests running", limited::getActive);
+        }
+
+        metrics.gauge("shelves_db_pool_borrowed", "Database connections in use",
+                () -> tasksDB.getPoolStats().getBorrowed());
+        metrics.gauge("shelves_db_pool_open", "Database connections open", () -> tasksDB.getPoolStats().getOpen());
+        metrics.gauge("shelves_nonces_outstanding", "Nonces issued but not yet used or expired",
+                () -> auth.getNonceStore().getSize());
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up at runtime so the server still builds and runs
+    // on Java 11; returns null when the running JVM doesn't have it
+    private static ExecutorService newVirtualThreadPerTaskExecutor(){
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 }
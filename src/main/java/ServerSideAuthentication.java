@@ -3,15 +3,22 @@ import org.bouncycastle.util.encoders.Hex;
 import java.io.*;
 import java.net.InetAddress;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.security.SecureRandom;
 import java.util.Random;
 
 class ServerSideAuthentication {
 
     private String passwordHash;
-    private final HashMap<InetAddress, String> nonceMap = new HashMap<>();
+    private final NonceStore nonceStore = new NonceStore();
+    private final Random random = new SecureRandom();
+    private final SessionTokens sessionTokens;
 
     ServerSideAuthentication(Path credFilePath) {
+        this(credFilePath, SessionTokens.DEFAULT_TTL_SECONDS);
+    }
+
+    ServerSideAuthentication(Path credFilePath, long sessionTTLSeconds) {
+        sessionTokens = new SessionTokens(sessionTTLSeconds);
         try {
             readCredentials(credFilePath);
         } catch (IOException e) {
@@ -45,25 +52,54 @@ class ServerSideAuthentication {
         return Hex.toHexString(digest);
     }
 
-    // generate and hash a random long int and put it in a hash map with the client's IP address to be checked and removed later
+    // generate and hash a random long int and store it for the client's IP address to be checked and removed later;
+    // returns null if too many nonces are outstanding
     String getNonce(InetAddress remoteAddress) {
-        Random random = new Random();
         long seed = random.nextLong();
 
         String nonce = hash(Long.toString(seed));
 
-        // add nonce to nonceMap to be referenced when the client makes the request
-        nonceMap.remove(remoteAddress); // remove any existing entry for this IP address
-        nonceMap.put(remoteAddress, nonce);
-
+        // add nonce to the store to be referenced when the client makes the request
+        if (!nonceStore.add(remoteAddress, nonce)) {
+            return null;
+        }
         return nonce;
     }
 
-    // compare hashed credentials provided by the client with the hash of the expected credentials
-    boolean checkCredentials(String clientHash, InetAddress remoteAddress) {
-        String expectedHash = hash(passwordHash + nonceMap.get(remoteAddress));
-        nonceMap.remove(remoteAddress); // remove the client's IP address and nonce from the hash map
-        return expectedHash.equals(clientHash);
+    // compare the hashed credentials provided by the client with the hash of the expected credentials for the nonce
+    // it answered. credentials are "<hash> <nonce>"; a client that sends only the hash answered its newest nonce.
+    // the nonce is used up whether or not the hash matches, so each one is good for a single attempt
+    boolean checkCredentials(String credentials, InetAddress remoteAddress) {
+        if (credentials != null) {
+            String[] parts = credentials.trim().split(" +", 2);
+            String clientHash = parts[0];
+            String nonce;
+            if (parts.length == 2) {
+                nonce = nonceStore.consume(remoteAddress, parts[1]) ? parts[1] : null; // null if already used
+            }
+            else {
+                nonce = nonceStore.consumeNewest(remoteAddress);
+            }
+
+            if (nonce != null && hash(passwordHash + nonce).equals(clientHash)) {
+                return true;
+            }
+        }
+        nonceStore.recordFailure();
+        return false;
+    }
+
+    // a token that lets the client skip the nonce on later requests; only handed out after checkCredentials passes
+    String issueSessionToken() {
+        return sessionTokens.issue();
+    }
+
+    boolean checkSessionToken(String token) {
+        return sessionTokens.check(token);
+    }
+
+    NonceStore getNonceStore() {
+        return nonceStore;
     }
 
     // asks the user to input a password that will be used to control access to POST requests
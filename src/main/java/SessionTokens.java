@@ -0,0 +1,95 @@
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+// short-lived tokens handed out after a successful nonce-based /auth, so later POSTs don't need a nonce each.
+// a token is "<expiry>.<random>.<signature>", where the signature is an HMAC-SHA256 of the first two parts
+// under a key made when the server starts. checking a token only recomputes the HMAC, so no state is shared
+// between requests; the flip side is that a token can't be revoked before it expires, except by restarting
+// the server, which makes a new key
+class SessionTokens {
+
+    static final long DEFAULT_TTL_SECONDS = 900;
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+    SessionTokens(long ttlSeconds){
+        if (ttlSeconds < 1){
+            throw new IllegalArgumentException("Session token TTL must be at least 1 second");
+        }
+        byte[] keyBytes = new byte[32];
+        random.nextBytes(keyBytes);
+
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    String issue(){
+        byte[] randomBytes = new byte[12];
+        random.nextBytes(randomBytes);
+
+        String body = (System.currentTimeMillis() + ttlMillis) + "." + encoder.encodeToString(randomBytes);
+        return body + "." + sign(body);
+    }
+
+    // true if the token was issued by this server and hasn't expired
+    boolean check(String token){
+        if (token == null){
+            return false;
+        }
+        int signatureStart = token.lastIndexOf('.');
+        int randomStart = token.indexOf('.');
+        if (randomStart <= 0 || signatureStart == randomStart){
+            return false;
+        }
+
+        String body = token.substring(0, signatureStart);
+        byte[] expected = sign(body).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(signatureStart + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual)){ // constant time, so the signature can't be guessed byte by byte
+            return false;
+        }
+
+        try {
+            return Long.parseLong(token.substring(0, randomStart)) > System.currentTimeMillis();
+        }
+        catch (NumberFormatException e){
+            return false;
+        }
+    }
+
+    long getTTLMillis(){
+        return ttlMillis;
+    }
+
+    // the expiry time, in epoch milliseconds, written into a token
+    static long getExpiry(String token){
+        return Long.parseLong(token.substring(0, token.indexOf('.')));
+    }
+
+    // Mac instances aren't thread safe, so each signature gets its own, and nothing is shared between requests.
+    // making and keying one takes about a microsecond, which no request notices
+    private String sign(String body){
+        return encoder.encodeToString(newMac().doFinal(body.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private Mac newMac(){
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        }
+        catch (GeneralSecurityException e){
+            throw new IllegalStateException(ALGORITHM + " is not available", e); // every JRE is required to have it
+        }
+    }
+}
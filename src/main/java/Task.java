@@ -1,69 +1,45 @@
+import org.json.JSONArray;
 import org.json.JSONObject;
-import java.util.Date;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
+// dates are epoch milliseconds, the way they're stored and sent, and 0 when there isn't one. dependencies and
+// dependents are task IDs; they go out as strings, as they always have
 public class Task {
 
+    private static final int[] NO_IDS = {};
+
     private int ID;
     private String taskName;
     private String description;
     private List<String> requirements;
-    private Date dateCreated;
-    private Date dateDue;
-    private Date dateComplete;
+    private long dateCreated;
+    private long dateDue;
+    private long dateComplete;
     private boolean isComplete;
     private boolean isClaimed;
     private String claimedByEmail;
-    private List<String> dependencies; // list of the IDs of tasks that this task depends on
-    private List<String> dependents; // list of the IDs of tasks that depend on this task
+    private int[] dependencies; // the IDs of tasks that this task depends on
+    private int[] dependents; // the IDs of tasks that depend on this task
 
     // for new tasks
     Task(String taskName, String description, List<String> requirements,
-         Date dateDue, boolean isComplete, List<String> dependencies, List<String> dependents){
+         long dateDue, boolean isComplete, int[] dependencies){
         this.taskName = taskName;
         this.description = description;
         this.requirements = requirements;
-        this.dateCreated = new Date();
+        this.dateCreated = System.currentTimeMillis();
         this.dateDue = dateDue;
         this.isComplete = isComplete;
         this.dependencies = dependencies; // tasks this task depends on
-        this.dependents = dependents; // tasks that depend on this task
-    }
-
-    // for unfinished, unclaimed tasks loaded from DB
-    Task(int taskID, String taskName, String description, List<String> requirements, Date dateCreated, Date dateDue,
-         boolean isComplete, boolean isClaimed, List<String> dependencies, List<String> dependents){
-        this.ID = taskID;
-        this.taskName = taskName;
-        this.description = description;
-        this.requirements = requirements;
-        this.dateCreated = dateCreated;
-        this.dateDue = dateDue;
-        this.isComplete = isComplete;
-        this.isClaimed = isClaimed;
-        this.dependencies = dependencies;
-        this.dependents = dependents;
+        this.dependents = NO_IDS; // nothing can depend on it until it has an ID
     }
 
-    // for unfinished, claimed tasks loaded from DB
-    Task(int taskID, String taskName, String description, List<String> requirements, Date dateCreated, Date dateDue,
-         boolean isComplete, boolean isClaimed, String claimedByEmail, List<String> dependencies, List<String> dependents){
-        this.ID = taskID;
-        this.taskName = taskName;
-        this.description = description;
-        this.requirements = requirements;
-        this.dateCreated = dateCreated;
-        this.dateDue = dateDue;
-        this.isComplete = isComplete;
-        this.isClaimed = isClaimed;
-        this.claimedByEmail = claimedByEmail;
-        this.dependencies = dependencies;
-        this.dependents = dependents;
-    }
-
-    // for finished tasks loaded from DB
-    Task(int taskID, String taskName, String description, List<String> requirements, Date dateCreated, Date dateDue, Date dateComplete,
-         boolean isComplete, boolean isClaimed, String claimedByEmail, List<String> dependencies, List<String> dependents){
+    // for tasks loaded from DB; dateComplete is 0 and claimedByEmail null for tasks that aren't complete or claimed
+    Task(int taskID, String taskName, String description, List<String> requirements, long dateCreated, long dateDue,
+         long dateComplete, boolean isComplete, boolean isClaimed, String claimedByEmail, int[] dependencies,
+         int[] dependents){
         this.ID = taskID;
         this.taskName = taskName;
         this.description = description;
@@ -82,27 +58,27 @@ public class Task {
     public String getTaskName() { return taskName; }
     public String getDescription() { return description; }
     public List<String> getRequirements() { return requirements; }
-    public Date getDateCreated() { return dateCreated; }
-    public Date getDateDue() { return dateDue; }
-    public Date getDateComplete() { return dateComplete; }
+    public long getDateCreated() { return dateCreated; }
+    public long getDateDue() { return dateDue; }
+    public long getDateComplete() { return dateComplete; }
     public boolean getComplete() { return isComplete; }
     public boolean getClaimed() { return isClaimed; }
     public String getClaimedByEmail() { return claimedByEmail; }
-    public List<String> getDependencies() { return dependencies; }
-    public List<String> getDependents() { return dependents; }
+    public int[] getDependencies() { return dependencies; }
+    public int[] getDependents() { return dependents; }
 
     public void setComplete(boolean complete) { isComplete = complete; }
-    public void setDateDue(Date dateDue) { this.dateDue = dateDue; }
-    public void setDateCreated(Date dateCreated) { this.dateCreated = dateCreated; }
+    public void setDateDue(long dateDue) { this.dateDue = dateDue; }
+    public void setDateCreated(long dateCreated) { this.dateCreated = dateCreated; }
     public void setTaskName(String taskName) { this.taskName = taskName; }
     public void setClaimed(boolean claimed) { isClaimed = claimed; }
     public void setClaimedByEmail(String claimedByEmail) { this.claimedByEmail = claimedByEmail; }
-    public void setDateComplete(Date dateComplete) { this.dateComplete = dateComplete; }
+    public void setDateComplete(long dateComplete) { this.dateComplete = dateComplete; }
     public void setDescription(String description) { this.description = description; }
-    public void setDependencies(List<String> dependencies) { this.dependencies = dependencies; }
+    public void setDependencies(int[] dependencies) { this.dependencies = dependencies; }
     public void setID(int ID) { this.ID = ID; }
     public void setRequirements(List<String> requirements) { this.requirements = requirements; }
-    public void setDependents(List<String> dependents) { this.dependents = dependents; }
+    public void setDependents(int[] dependents) { this.dependents = dependents; }
 
     public JSONObject toJSON(){
         JSONObject json = new JSONObject();
@@ -111,18 +87,16 @@ public class Task {
         json.put("task_name", taskName);
         json.put("description", description);
         json.put("requirements", requirements);
-        json.put("date_created", dateCreated.getTime());
-        json.put("date_due", dateDue.getTime());
+        json.put("date_created", dateCreated);
+        json.put("date_due", dateDue);
         json.put("is_complete", isComplete);
         json.put("is_claimed", isClaimed);
-        json.put("dependencies", dependencies);
-        json.put("dependents", dependents);
+        json.put("dependencies", toJSONArray(dependencies));
+        json.put("dependents", toJSONArray(dependents));
 
         if (isComplete) {
-            json.put("date_complete", dateComplete.getTime());
+            json.put("date_complete", dateComplete);
             json.put("claimed_by_email", claimedByEmail);
-            json.put("dependencies", dependencies);
-            json.put("dependents", dependents);
         }
         else if (isClaimed){
             json.put("claimed_by_email", claimedByEmail);
@@ -130,4 +104,88 @@ public class Task {
 
         return json;
     }
+
+    // writes the same JSON as toJSON() straight to out, without building a JSONObject first
+    public void writeJSON(Writer out) throws IOException {
+        out.write("{\"id\":");
+        out.write(Integer.toString(ID));
+        writeField(out, "task_name", taskName);
+        writeField(out, "description", description);
+        writeField(out, "requirements", requirements);
+        out.write(",\"date_created\":");
+        out.write(Long.toString(dateCreated));
+        out.write(",\"date_due\":");
+        out.write(Long.toString(dateDue));
+        out.write(",\"is_complete\":");
+        out.write(Boolean.toString(isComplete));
+        out.write(",\"is_claimed\":");
+        out.write(Boolean.toString(isClaimed));
+        writeField(out, "dependencies", dependencies);
+        writeField(out, "dependents", dependents);
+
+        if (isComplete) {
+            out.write(",\"date_complete\":");
+            out.write(Long.toString(dateComplete));
+            writeField(out, "claimed_by_email", claimedByEmail);
+        }
+        else if (isClaimed){
+            writeField(out, "claimed_by_email", claimedByEmail);
+        }
+
+        out.write('}');
+    }
+
+    // like JSONObject.put, a null value leaves the field out
+    private static void writeField(Writer out, String name, String value) throws IOException {
+        if (value != null) {
+            out.write(",\"");
+            out.write(name);
+            out.write("\":");
+            JSONObject.quote(value, out);
+        }
+    }
+
+    // IDs as JSON strings, which is how clients have always received them
+    private static JSONArray toJSONArray(int[] IDs){
+        if (IDs == null) {
+            return null;
+        }
+        JSONArray array = new JSONArray();
+        for (int ID : IDs) {
+            array.put(Integer.toString(ID));
+        }
+        return array;
+    }
+
+    private static void writeField(Writer out, String name, int[] IDs) throws IOException {
+        if (IDs != null) {
+            out.write(",\"");
+            out.write(name);
+            out.write("\":[");
+            for (int i = 0; i < IDs.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write('"');
+                out.write(Integer.toString(IDs[i]));
+                out.write('"');
+            }
+            out.write(']');
+        }
+    }
+
+    private static void writeField(Writer out, String name, List<String> values) throws IOException {
+        if (values != null) {
+            out.write(",\"");
+            out.write(name);
+            out.write("\":[");
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                JSONObject.quote(values.get(i), out);
+            }
+            out.write(']');
+        }
+    }
 }
@@ -0,0 +1,65 @@
+import org.json.JSONObject;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// writes the same {"results":[...],"status_code":n} envelope as RequestHandler.makeOutputJSON, one task at a time,
+// so a task list is never held in memory as a whole. results come first because the status code depends on
+// whether any tasks were written
+class TaskStreamWriter implements Closeable {
+
+    private final Writer out;
+    private int count = 0;
+    private int lastID;
+    private Integer statusCode = null; // null to decide by whether there were tasks
+    private final Map<String, Object> fields = new LinkedHashMap<>(); // written after the status code
+
+    TaskStreamWriter(OutputStream out) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.out.write("{\"results\":[");
+    }
+
+    void write(Task task) throws IOException {
+        if (count > 0) {
+            out.write(',');
+        }
+        task.writeJSON(out);
+        lastID = task.getID();
+        count++;
+    }
+
+    int getCount() { return count; }
+    int getLastID() { return lastID; }
+
+    // a cursor for the page after this one, written into the envelope when the writer is closed
+    void setNextCursor(String nextCursor) { put("next_cursor", nextCursor); }
+
+    // another field for the envelope, written as org.json would write the value
+    void put(String name, Object value) { fields.put(name, value); }
+
+    // overrides the status code, for responses where no tasks is still an answer
+    void setStatusCode(int statusCode) { this.statusCode = statusCode; }
+
+    // finishes the envelope and closes the underlying stream, which is closed even if finishing fails
+    @Override
+    public void close() throws IOException {
+        try (Writer out = this.out) {
+            // status code is 0 if there were tasks found, 1 if not, unless it was set
+            out.write("],\"status_code\":");
+            if (statusCode != null) {
+                out.write(Integer.toString(statusCode));
+            }
+            else {
+                out.write(count > 0 ? "0" : "1");
+            }
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                out.write(',');
+                JSONObject.quote(field.getKey(), out);
+                out.write(':');
+                out.write(JSONObject.valueToString(field.getValue()));
+            }
+            out.write('}');
+        }
+    }
+}
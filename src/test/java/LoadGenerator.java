@@ -0,0 +1,396 @@
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.jcajce.provider.digest.SHA3;
+import org.bouncycastle.util.encoders.Hex;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// drives a ShelvesServer with an open-loop mix of requests and reports throughput and latency for each endpoint.
+// by default it starts a server in this JVM on a free port, against a new database in a temporary directory;
+// pass --target to load a server that's already running instead. requests are sent at a fixed rate whether or
+// not earlier ones have been answered, and latency is measured from when a request was due to be sent, so a
+// server that falls behind shows it in the percentiles rather than by slowing the generator down.
+//
+// run from the test classpath, for example
+//     java -cp <classpath> -Dshelves.pool.queueSize=100 LoadGenerator --rate=2000 --duration=30 \
+//         --mix=get_task=60,search=20,add_task=10,complete_task=10 --auth=nonce
+// the server's executor and pool settings are read from the same -Dshelves.* properties as Server's
+public class LoadGenerator {
+
+    private static final String PASSWORD = "load-generator";
+    private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel"};
+    private static final int IMPORT_BATCH_SIZE = 5000;
+
+    private final Map<String, String> options;
+    private final HttpClient client;
+    private final ExecutorService clientExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "load-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private String baseURL;
+    private String passwordHash;
+    private String sessionToken;
+    private int taskCount;
+
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private String[] mixNames;
+    private int[] mixWeights;
+    private int mixTotal;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder(); // arrivals not sent because too many requests were in flight
+    private volatile boolean recording = false;
+
+    LoadGenerator(Map<String, String> options){
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(clientExecutor)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args){
+            if (!arg.startsWith("--") || !arg.contains("=")){
+                System.err.println("Options look like --name=value, got " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        new LoadGenerator(options).run();
+        System.exit(0); // the embedded server's threads aren't daemons
+    }
+
+    void run() throws Exception {
+        double rate = Double.parseDouble(option("rate", "500"));
+        int warmupSeconds = Integer.parseInt(option("warmup", "5"));
+        int durationSeconds = Integer.parseInt(option("duration", "20"));
+        int maxInFlight = Integer.parseInt(option("maxInFlight", "2000"));
+        parseMix(option("mix", "get_task=50,get_incomplete_tasks=5,search=15,get_dependencies=10," +
+                "add_task=10,complete_task=5,update_claim=5"));
+
+        passwordHash = hash(PASSWORD);
+        HttpServer server = null;
+        if (options.containsKey("target")){
+            baseURL = options.get("target").replaceAll("/+$", "");
+            passwordHash = hash(option("password", PASSWORD));
+        }
+        else {
+            server = startServer();
+            baseURL = "http://localhost:" + server.getAddress().getPort();
+        }
+
+        if (option("auth", "nonce").equals("session")){
+            sessionToken = new JSONObject(authenticatedPost("auth", "").body()).getString("session_token");
+        }
+
+        taskCount = Integer.parseInt(option("tasks", "10000"));
+        int fanOut = Integer.parseInt(option("fanOut", "4"));
+        populate(taskCount, fanOut);
+
+        System.out.printf("Sending %.0f requests/s for %ss after a %ss warmup, to %s%n",
+                rate, durationSeconds, warmupSeconds, baseURL);
+        drive(rate, warmupSeconds, false, maxInFlight);
+        drive(rate, durationSeconds, true, maxInFlight);
+
+        // let the requests still in flight finish so they are counted
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline){
+            Thread.sleep(10);
+        }
+        report(durationSeconds);
+
+        if (server != null){
+            printServerGauges();
+            server.stop(0);
+        }
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~SETUP~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // a server on a free port, with a new database and password file in a temporary directory
+    private HttpServer startServer() throws IOException {
+        Path directory = Files.createTempDirectory("shelves-load");
+        Path authFile = directory.resolve("auth.txt");
+        Files.write(authFile, passwordHash.getBytes(StandardCharsets.UTF_8));
+
+        Database tasksDB = new Database("jdbc:sqlite:" + directory.resolve("tasksDB.sqlite"), Server.DATABASE_POOL_SIZE);
+        ServerSideAuthentication auth = new ServerSideAuthentication(authFile, Server.SESSION_TTL_SECONDS);
+        return Server.start(0, tasksDB, auth);
+    }
+
+    // adds taskCount tasks through /add_tasks, each depending on up to fanOut earlier tasks in its batch
+    private void populate(int taskCount, int fanOut) throws Exception {
+        long start = System.nanoTime();
+        Random random = new Random(42);
+
+        for (int first = 0; first < taskCount; first += IMPORT_BATCH_SIZE){
+            JSONArray batch = new JSONArray();
+            int size = Math.min(IMPORT_BATCH_SIZE, taskCount - first);
+
+            for (int i = 0; i < size; i++){
+                JSONObject task = newTaskJSON(first + i);
+                task.put("key", Integer.toString(i));
+
+                JSONArray dependencyKeys = new JSONArray();
+                random.ints(0, Math.max(i, 1)).distinct().limit(Math.min(fanOut, i))
+                        .forEach(key -> dependencyKeys.put(Integer.toString(key)));
+                task.put("dependency_keys", dependencyKeys);
+                batch.put(task);
+            }
+
+            HttpResponse<String> response = authenticatedPost("add_tasks", batch.toString());
+            if (new JSONObject(response.body()).getInt("status_code") != 0){
+                throw new IllegalStateException("Couldn't add tasks: " + response.body());
+            }
+        }
+        System.out.printf("Added %s tasks in %s ms%n", taskCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void parseMix(String mix){
+        List<String> names = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+
+        for (String entry : mix.split(",")){
+            String[] parts = entry.split("=");
+            names.add(parts[0].trim());
+            weights.add(Integer.parseInt(parts[1].trim()));
+            endpoints.put(parts[0].trim(), new Endpoint());
+        }
+
+        mixNames = names.toArray(new String[0]);
+        mixWeights = new int[weights.size()];
+        for (int i = 0; i < mixWeights.length; i++){
+            mixTotal += weights.get(i);
+            mixWeights[i] = mixTotal; // cumulative, for picking with one random number
+        }
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~LOAD~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    // sends requests at a fixed rate for the given time. each one has a due time on the schedule; if the
+    // generator is running late it sends the overdue ones straight away rather than skipping them
+    private void drive(double rate, int seconds, boolean record, int maxInFlight){
+        recording = record;
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        for (long due = start; due < end; due += interval){
+            long wait = due - System.nanoTime();
+            if (wait > 0){
+                LockSupport.parkNanos(wait);
+            }
+
+            String name = pickEndpoint();
+            if (inFlight.get() >= maxInFlight){
+                if (record){
+                    dropped.increment();
+                }
+                continue;
+            }
+            send(name, endpoints.get(name), due);
+        }
+    }
+
+    private String pickEndpoint(){
+        int pick = ThreadLocalRandom.current().nextInt(mixTotal);
+        for (int i = 0; i < mixWeights.length; i++){
+            if (pick < mixWeights[i]){
+                return mixNames[i];
+            }
+        }
+        return mixNames[mixNames.length - 1];
+    }
+
+    private void send(String name, Endpoint endpoint, long due){
+        inFlight.incrementAndGet();
+        boolean record = recording;
+
+        CompletableFuture<HttpResponse<String>> response;
+        try {
+            response = request(name);
+        }
+        catch (RuntimeException e){
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        response.whenComplete((result, error) -> {
+            long latency = System.nanoTime() - due;
+            inFlight.decrementAndGet();
+            if (!record){
+                return;
+            }
+
+            endpoint.latency.record(latency);
+            if (error != null){
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                endpoint.recordError(cause.getClass().getSimpleName());
+            }
+            else if (result.statusCode() != 200){
+                endpoint.recordError("HTTP " + result.statusCode());
+            }
+            else if (result.body().startsWith("{\"status_code\":1")){
+                endpoint.notOK.increment(); // the request was handled but refused, like a task that doesn't exist
+            }
+        });
+    }
+
+    // builds and sends one request of the named kind
+    private CompletableFuture<HttpResponse<String>> request(String name){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int ID = random.nextInt(taskCount) + 1;
+
+        switch (name){
+            case "get_task":
+            case "get_dependencies":
+            case "get_dependents":
+                return get(name + "/" + ID);
+            case "get_all_tasks":
+            case "get_complete_tasks":
+            case "get_incomplete_tasks":
+                return get(name + "?limit=100");
+            case "search":
+                return get("search/" + WORDS[random.nextInt(WORDS.length)]);
+            case "add_task":
+                return postAsync(name, newTaskJSON(random.nextInt(1000000)).toString());
+            case "complete_task":
+            case "remove_task":
+                return postAsync(name, new JSONObject().put("id", ID).toString());
+            case "update_claim":
+                return postAsync(name, new JSONObject().put("id", ID)
+                        .put("claimed_by_email", "load" + ID + "@example.com").toString());
+            case "add_dependency":
+                return postAsync(name, new JSONObject().put("dependentID", ID)
+                        .put("dependencyID", random.nextInt(taskCount) + 1).toString());
+            default:
+                return get(name);
+        }
+    }
+
+    private CompletableFuture<HttpResponse<String>> get(String path){
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseURL + "/" + path)).GET().build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    // a POST authenticated with the session token if there is one, otherwise with a nonce fetched first, the
+    // way the client does it; the nonce's round trip counts toward the POST's latency
+    private CompletableFuture<HttpResponse<String>> postAsync(String path, String payload){
+        if (sessionToken != null){
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseURL + "/" + path))
+                    .header("Authorization", "Bearer " + sessionToken)
+                    .POST(HttpRequest.BodyPublishers.ofString(payload)).build();
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        }
+
+        return get("request_nonce").thenCompose(nonce -> {
+            String body = hash(passwordHash + nonce.body()) + " " + nonce.body() + "\n" + payload;
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseURL + "/" + path))
+                    .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        });
+    }
+
+    private HttpResponse<String> authenticatedPost(String path, String payload) throws Exception {
+        return postAsync(path, payload).get(60, TimeUnit.SECONDS);
+    }
+
+    private static JSONObject newTaskJSON(int number){
+        long now = System.currentTimeMillis();
+        JSONObject task = new JSONObject();
+
+        task.put("id", 0);
+        task.put("task_name", "Load task " + number + " " + WORDS[number % WORDS.length]);
+        task.put("description", "Made by the load generator");
+        task.put("date_created", now);
+        task.put("date_due", now + TimeUnit.DAYS.toMillis(7));
+        task.put("requirements", new JSONArray().put("Requirement 1").put("Requirement 2"));
+        task.put("dependencies", new JSONArray());
+        task.put("dependents", new JSONArray());
+        return task;
+    }
+
+    /** ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~REPORTING~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ **/
+
+    private void report(int durationSeconds){
+        System.out.printf("%n%-22s %9s %9s %8s %8s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "req/s", "errors", "not ok", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        long total = 0;
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()){
+            Metrics.Histogram.Snapshot snapshot = entry.getValue().latency.snapshot();
+            Endpoint endpoint = entry.getValue();
+            total += snapshot.getCount();
+
+            System.out.printf("%-22s %9d %9.1f %8d %8d %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(),
+                    snapshot.getCount(), snapshot.getCount() / (double) durationSeconds, endpoint.errors.sum(),
+                    endpoint.notOK.sum(), millis(snapshot.valueAt(0.5)), millis(snapshot.valueAt(0.99)),
+                    millis(snapshot.valueAt(0.999)), millis(snapshot.valueAt(1.0)));
+        }
+        System.out.printf("%ntotal %d requests, %.1f/s; %d not sent because %s were already in flight%n",
+                total, total / (double) durationSeconds, dropped.sum(), option("maxInFlight", "2000"));
+
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()){
+            for (Map.Entry<String, LongAdder> reason : entry.getValue().errorReasons.entrySet()){
+                System.out.printf("  %s: %s x %d%n", entry.getKey(), reason.getKey(), reason.getValue().sum());
+            }
+        }
+    }
+
+    // the executor and connection pool gauges from the embedded server's /metrics
+    private void printServerGauges() throws Exception {
+        String metrics = get("metrics").get(10, TimeUnit.SECONDS).body();
+        System.out.println();
+        for (String line : metrics.split("\n")){
+            if (line.startsWith("shelves_executor") || line.startsWith("shelves_db_pool")){
+                System.out.println("server " + line);
+            }
+        }
+    }
+
+    private static double millis(long nanos){
+        return nanos / 1e6;
+    }
+
+    private String option(String name, String defaultValue){
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static String hash(String input){
+        SHA3.DigestSHA3 digestSHA3 = new SHA3.Digest512();
+        return Hex.toHexString(digestSHA3.digest(input.getBytes()));
+    }
+
+    // what was seen for one kind of request while recording
+    private static class Endpoint {
+
+        private final Metrics.Histogram latency = new Metrics.Histogram();
+        private final LongAdder errors = new LongAdder(); // no response, or a status other than 200
+        private final LongAdder notOK = new LongAdder(); // a response with status_code 1
+        private final Map<String, LongAdder> errorReasons = new ConcurrentHashMap<>();
+
+        private void recordError(String reason){
+            errors.increment();
+            errorReasons.computeIfAbsent(reason, key -> new LongAdder()).increment();
+        }
+    }
+}
@@ -1,11 +1,45 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import org.bouncycastle.jcajce.provider.digest.SHA3;
+import org.bouncycastle.util.encoders.Hex;
+import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -21,6 +55,11 @@ public class testDB {
         testDatabase = new Database(test_url);
     }
 
+    @After
+    public void stop(){
+        testDatabase.close();
+    }
+
     @Test
     public void testGetAllTasks(){
         clearTable();
@@ -87,6 +126,32 @@ public class testDB {
         }
     }
 
+    @Test
+    public void testGetTaskPages(){
+        clearTable();
+        populateTable();
+        testDatabase.completeTask(3);
+
+        List<Task> firstPage = testDatabase.getAllTasks(Database.FIRST_PAGE, 2);
+        List<Task> lastPage = testDatabase.getAllTasks(4, 2);
+        List<Task> incompletePage = testDatabase.getIncompleteTasks(2, 2);
+
+        try {
+            errorMessage = "getAllTasks() didn't return the first page";
+            assert firstPage.size() == 2;
+            assert firstPage.get(0).getID() == 1 && firstPage.get(1).getID() == 2;
+            errorMessage = "getAllTasks() didn't return a short last page";
+            assert lastPage.size() == 1 && lastPage.get(0).getID() == 5;
+            errorMessage = "getIncompleteTasks() didn't skip the complete task in a page";
+            assert incompletePage.size() == 2;
+            assert incompletePage.get(0).getID() == 4 && incompletePage.get(1).getID() == 5;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
     @Test
     public void testGetTask(){
         clearTable();
@@ -105,6 +170,51 @@ public class testDB {
         }
     }
 
+    @Test
+    public void testGetTasks(){
+        clearTable();
+        populateTable();
+        List<Task> tasks = testDatabase.getTasks(new int[] {2, 4, 9});
+
+        try {
+            errorMessage = "getTasks() returned null";
+            assert tasks != null;
+            errorMessage = "getTasks() didn't return only the tasks that exist";
+            assert tasks.size() == 2;
+            errorMessage = "getTasks() returned the wrong tasks";
+            assert tasks.get(0).getID() == 2 && tasks.get(1).getID() == 4;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testGetDependencyTasks(){
+        clearTable();
+        populateTable();
+        testDatabase.addDependency(3, 1);
+        testDatabase.addDependency(3, 2);
+        testDatabase.addDependency(4, 1);
+
+        List<Task> dependencies = testDatabase.getDependencyTasks(3);
+        List<Task> dependents = testDatabase.getDependentTasks(1);
+
+        try {
+            errorMessage = "getDependencyTasks() returned the wrong tasks";
+            assert dependencies.size() == 2;
+            assert dependencies.get(0).getID() == 1 && dependencies.get(1).getID() == 2;
+            errorMessage = "getDependentTasks() returned the wrong tasks";
+            assert dependents.size() == 2;
+            assert dependents.get(0).getID() == 3 && dependents.get(1).getID() == 4;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
     @Test
     public void testSearch(){
         clearTable();
@@ -126,6 +236,69 @@ public class testDB {
         }
     }
 
+    @Test
+    public void testSearchPrefixAndDescription(){
+        clearTable();
+        populateTable();
+        List<Task> prefixResult = testDatabase.search("Test Ro");
+        List<Task> descriptionResult = testDatabase.search("is a test");
+
+        try {
+            errorMessage = "search() didn't match the start of a word";
+            assert prefixResult != null && prefixResult.size() == 5;
+            errorMessage = "search() didn't match task descriptions";
+            assert descriptionResult != null && descriptionResult.size() == 5;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testSearchSemantics(){
+        clearTable();
+        populateTable();
+        testDatabase.addTask(new Task("Other", "Test Row in the description", new ArrayList<>(),
+                new Date().getTime(), false, new int[0]));
+
+        try {
+            errorMessage = "search() matched inside a word";
+            assert testDatabase.search("ask").isEmpty();
+            assert testDatabase.search("est Row").isEmpty();
+
+            errorMessage = "search() didn't ignore case or accents";
+            assert testDatabase.search("test row").size() == 6;
+            testDatabase.addTask(new Task("Caf\u00e9", "", new ArrayList<>(), new Date().getTime(), false, new int[0]));
+            assert testDatabase.search("cafe").size() == 1;
+
+            errorMessage = "search() matched words out of order";
+            assert testDatabase.search("Row Test").isEmpty();
+
+            errorMessage = "search() didn't rank name matches above description matches";
+            List<Task> ranked = testDatabase.search("Test Row");
+            assert ranked.size() == 6 && ranked.get(5).getTaskName().equals("Other");
+
+            errorMessage = "search() didn't match requirements";
+            assert testDatabase.search("Req").size() == 5;
+
+            errorMessage = "search() didn't find names containing a query with no words in it";
+            assert testDatabase.search("#").size() == 5;
+
+            errorMessage = "search() returned more than SEARCH_RESULT_LIMIT tasks";
+            List<Task> tasks = new ArrayList<>();
+            for (int i = 0; i < Database.SEARCH_RESULT_LIMIT; i++) {
+                tasks.add(new Task("Bulk Row " + i, "", new ArrayList<>(), new Date().getTime(), false, new int[0]));
+            }
+            testDatabase.addTasks(tasks, new int[tasks.size()][0]);
+            assert testDatabase.search("Row").size() == Database.SEARCH_RESULT_LIMIT;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
     @Test
     public void testCompleteTask(){
         clearTable();
@@ -139,7 +312,7 @@ public class testDB {
             errorMessage = "completeTask() failed to mark the task as complete";
             assert task.getComplete();
             errorMessage = "No dateComplete was found for the task completeTask() was applied to";
-            assert task.getDateComplete() != null;
+            assert task.getDateComplete() > 0;
         }
         catch (AssertionError e){
             System.out.println(errorMessage);
@@ -156,6 +329,98 @@ public class testDB {
         try {
             errorMessage = "removeTask() failed to remove the task";
             assert testDatabase.getTask(3) == null; // will raise "SQLException: ResultSet closed"; this is fine
+
+            errorMessage = "removeTask() didn't refuse a task that doesn't exist";
+            assert !testDatabase.removeTask(3);
+            assert !testDatabase.removeTask(-1);
+            assert !testDatabase.removeTask(Integer.MAX_VALUE);
+
+            errorMessage = "Removing a task that doesn't exist changed the other tasks";
+            assert testDatabase.getAllTasks().size() == 4;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testRemoveTaskRemovesDependencies(){
+        clearTable();
+        populateTable();
+        testDatabase.addDependency(3, 1);
+        testDatabase.addDependency(4, 3);
+        testDatabase.removeTask(3);
+
+        try {
+            errorMessage = "removeTask() left the removed task in its dependency's dependents";
+            assert testDatabase.getDependents(1).size() == 0;
+            errorMessage = "removeTask() left the removed task in its dependent's dependencies";
+            assert testDatabase.getDependencyIDs(4).length == 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testAddTaskAfterRemove(){
+        clearTable();
+        populateTable();
+        testDatabase.removeTask(3);
+
+        Task task = new Task("Added After Remove", "This is a test", new ArrayList<>(), new Date().getTime(), false,
+                new int[] {1});
+
+        try {
+            errorMessage = "addTask() failed after a task was removed";
+            assert testDatabase.addTask(task);
+            errorMessage = "addTask() reused the ID of an existing task";
+            assert testDatabase.getTask(5).getTaskName().equals("Test Row #5");
+            errorMessage = "addTask() didn't add the task's dependencies with it";
+            assert testDatabase.getDependents(1).contains("6");
+            errorMessage = "removeTask() returned true for a task that doesn't exist";
+            assert !testDatabase.removeTask(3);
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testAddTasks(){
+        clearTable();
+        populateTable();
+
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int[] dependencies = {};
+            if (i == 0) {
+                dependencies = new int[] {2, 99}; // 2 is already in the database; 99 doesn't exist, so it's skipped
+            }
+            tasks.add(new Task(String.format("Batch Row #%s", i + 1), "This is a test", new ArrayList<>(),
+                    new Date().getTime(), false, dependencies));
+        }
+        int[][] batchDependencies = {{}, {0}, {0, 1}};
+        int[] IDs = testDatabase.addTasks(tasks, batchDependencies);
+
+        try {
+            errorMessage = "addTasks() didn't return an ID for each task";
+            assert IDs != null && IDs.length == 3;
+            errorMessage = "addTasks() didn't give the tasks new IDs in order";
+            assert IDs[0] == 6 && IDs[1] == 7 && IDs[2] == 8;
+            assert testDatabase.getTask(7).getTaskName().equals("Batch Row #2");
+            errorMessage = "addTasks() didn't add dependencies on existing tasks";
+            assert testDatabase.getDependents(2).contains("6");
+            errorMessage = "addTasks() added a dependency on a task that doesn't exist";
+            assert testDatabase.getDependencies(6).size() == 1;
+            errorMessage = "addTasks() didn't add dependencies between tasks in the batch";
+            assert testDatabase.getDependents(6).size() == 2;
+            assert testDatabase.getDependencies(8).contains("7");
+            errorMessage = "addTasks() didn't add the tasks to the search index";
+            assert testDatabase.search("Batch").size() == 3;
         }
         catch (AssertionError e){
             System.out.println(errorMessage);
@@ -208,20 +473,16 @@ public class testDB {
         Task dependency2 = testDatabase.getTask(1);
         Task dependent = testDatabase.getTask(3);
 
-        List<String> expectedDependencies = new ArrayList<>();
-        expectedDependencies.add("1");
-        expectedDependencies.add("2");
-
-        List<String> expectedDependents = new ArrayList<>();
-        expectedDependents.add("3");
+        int[] expectedDependencies = {1, 2};
+        int[] expectedDependents = {3};
 
         try{
             errorMessage = "addDependency() failed to add the expected dependencies";
-            assert dependent.getDependencies().equals(expectedDependencies);
+            assert Arrays.equals(dependent.getDependencies(), expectedDependencies);
 
             errorMessage = "addDependency() failed to add the dependent task to its dependencies' dependents lists";
-            assert dependency1.getDependents().equals(expectedDependents);
-            assert dependency2.getDependents().equals(expectedDependents);
+            assert Arrays.equals(dependency1.getDependents(), expectedDependents);
+            assert Arrays.equals(dependency2.getDependents(), expectedDependents);
         }
         catch (AssertionError e){
             System.out.println(errorMessage);
@@ -230,25 +491,1415 @@ public class testDB {
     }
 
     @Test
-    public void testRemoveDependency(){
+    public void testDependencyCycles(){
+        clearTable();
+        populateTable();
+        testDatabase.addDependency(2, 1);
+        testDatabase.addDependency(3, 2);
+
+        try {
+            errorMessage = "addDependency() added an edge that closes a cycle";
+            assert !testDatabase.addDependency(1, 3);
+            assert testDatabase.getTask(1).getDependencies().length == 0;
+            assert !testDatabase.addDependency(4, 4);
+
+            errorMessage = "findDependencyCycle() didn't return the cycle the edge would close";
+            assert Arrays.equals(testDatabase.findDependencyCycle(1, 3), new int[] {1, 3, 2, 1});
+            assert Arrays.equals(testDatabase.findDependencyCycle(4, 4), new int[] {4, 4});
+            assert testDatabase.findDependencyCycle(3, 1) == null;
+
+            errorMessage = "addDependency() refused an edge that doesn't close a cycle";
+            assert testDatabase.addDependency(3, 1);
+            assert testDatabase.addDependency(5, 3);
+            assert testDatabase.addDependency(1, 4); // 4 was added after 1, so they have to swap places
+
+            errorMessage = "addDependency() missed a cycle through tasks that had been put back in order";
+            assert !testDatabase.addDependency(4, 2);
+            assert Arrays.equals(testDatabase.findDependencyCycle(4, 2), new int[] {4, 2, 1, 4});
+
+            errorMessage = "addTasks() added tasks that depend on each other in a cycle";
+            List<Task> tasks = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                tasks.add(new Task("Batch task", "", new ArrayList<>(), 0, false, new int[] {5}));
+            }
+            assert testDatabase.addTasks(tasks, new int[][] {{2}, {0}, {1}}) == null;
+            assert testDatabase.addTasks(tasks, new int[][] {{}, {1}, {}}) == null;
+            assert testDatabase.getDatabaseCount() == 5;
+            assert testDatabase.addTasks(tasks, new int[][] {{}, {0, 0}, {0, 1}}) != null;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testDependencyOrder(){
+        // random edges, added only when they don't close a cycle, checked against a search that doesn't use the order
+        Random random = new Random(42);
+        DependencyGraph graph = new DependencyGraph();
+        for (int ID = 1; ID <= 300; ID++) {
+            graph.addTask(ID);
+        }
+        graph.buildOrder();
+
+        try {
+            for (int i = 0; i < 3000; i++) {
+                int dependentID = random.nextInt(300) + 1;
+                int dependencyID = random.nextInt(300) + 1;
+
+                errorMessage = "dependsOn() disagreed with findDependencyPath() about " + dependencyID + " and "
+                        + dependentID;
+                boolean closesCycle = graph.dependsOn(dependencyID, dependentID);
+                assert closesCycle == (graph.findDependencyPath(dependencyID, dependentID) != null);
+                if (!closesCycle) {
+                    graph.addDependency(dependentID, dependencyID);
+                }
+            }
+            errorMessage = "The graph ended up with a cycle";
+            assert graph.getTopologicalOrder()[1].length == 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testReadyTasks() throws IOException {
         clearTable();
         populateTable();
         testDatabase.addDependency(3, 1);
-        testDatabase.removeDependency(3,1);
+        testDatabase.addDependency(3, 2);
+        testDatabase.addDependency(4, 3);
 
-        Task dependency = testDatabase.getTask(1);
-        Task dependent = testDatabase.getTask(3);
+        try {
+            errorMessage = "streamReadyTasks() didn't return just the tasks with no incomplete dependencies";
+            assert getReadyIDs().equals(Arrays.asList(1, 2, 5));
 
-        try{
-            errorMessage = "The dependent task was not removed from the dependency's dependents";
-            assert dependency.getDependents().size() == 0;
-            errorMessage = "The dependency was not removed from the dependent task's dependencies";
-            assert dependent.getDependencies().size() == 0;
+            errorMessage = "Completing tasks didn't update which tasks are ready";
+            testDatabase.completeTask(1);
+            assert getReadyIDs().equals(Arrays.asList(2, 5));
+            testDatabase.completeTask(2);
+            testDatabase.completeTask(2);
+            assert getReadyIDs().equals(Arrays.asList(3, 5));
+
+            errorMessage = "Changing dependencies didn't update which tasks are ready";
+            testDatabase.removeDependency(4, 3);
+            assert getReadyIDs().equals(Arrays.asList(3, 4, 5));
+            testDatabase.addDependency(4, 5);
+            testDatabase.addDependency(4, 1); // complete, so it doesn't hold 4 up
+            assert getReadyIDs().equals(Arrays.asList(3, 5));
+
+            errorMessage = "Removing a task didn't update which tasks are ready";
+            testDatabase.removeTask(5);
+            assert getReadyIDs().equals(Arrays.asList(3, 4));
+
+            errorMessage = "Adding tasks didn't update which tasks are ready";
+            testDatabase.addTask(new Task("Blocked", "", new ArrayList<>(), 0, false, new int[] {3}));
+            testDatabase.addTask(new Task("Done already", "", new ArrayList<>(), 0, true, new int[0]));
+            int unblockedID = testDatabase.addTasks(
+                    List.of(new Task("Unblocked", "", new ArrayList<>(), 0, false, new int[] {1})), new int[][] {{}})[0];
+            assert getReadyIDs().equals(Arrays.asList(3, 4, unblockedID));
+
+            errorMessage = "streamReadyTasks() didn't page through the ready tasks by ID";
+            List<Integer> page = new ArrayList<>();
+            testDatabase.streamReadyTasks(3, 1, task -> page.add(task.getID()));
+            assert page.equals(Arrays.asList(4));
+
+            errorMessage = "The ready tasks were different after the database was opened again";
+            testDatabase.close();
+            testDatabase = new Database(test_url);
+            assert getReadyIDs().equals(Arrays.asList(3, 4, unblockedID));
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testMigrateClaimColumns(){
+        testDatabase.close();
+        String legacy_url = "jdbc:sqlite:legacyDB.sqlite";
+
+        // the Tasks table as databases from before isClaimed created it, like the checked-in testDB.sqlite
+        try (Connection connection = DriverManager.getConnection(legacy_url)){
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE IF EXISTS Tasks");
+            statement.execute("CREATE TABLE Tasks (ID INTEGER PRIMARY KEY, taskName TEXT NOT NULL, " +
+                    "description TEXT, requirements TEXT, dateCreated NUMBER NOT NULL,dateDue NUMBER," +
+                    "dateComplete NUMBER,isComplete INT CHECK ( isComplete == 1 or isComplete == 0 )," +
+                    "claimedByEmail TEXT,dependencies TEXT,dependents TEXT)");
+            statement.executeUpdate("INSERT INTO Tasks VALUES (1, 'Old Row #1', 'This is a test', 'Req 1*', " +
+                    "1587420433987, 1587420433987, NULL, 0, '', '', '2*')");
+            statement.executeUpdate("INSERT INTO Tasks VALUES (2, 'Old Row #2', 'This is a test', 'Req 1*', " +
+                    "1587420434154, 1587420434154, NULL, 0, 'shevek@abbenay.org', '1*', '')");
+            statement.execute("PRAGMA user_version = 0");
+        }
+        catch (SQLException e){
+            e.printStackTrace();
+        }
+
+        Database legacyDatabase = new Database(legacy_url);
+        try {
+            errorMessage = "A database from before isClaimed couldn't be read after migrating";
+            assert legacyDatabase.getAllTasks().size() == 2;
+            assert legacyDatabase.getIncompleteTasks().size() == 2;
+
+            errorMessage = "A task with a claimant's email wasn't migrated as claimed";
+            assert legacyDatabase.getTask(2).getClaimed();
+            assert legacyDatabase.getTask(2).getClaimedByEmail().equals("shevek@abbenay.org");
+            assert !legacyDatabase.getTask(1).getClaimed();
+
+            errorMessage = "The dependency graph wasn't loaded after migrating";
+            assert Arrays.equals(legacyDatabase.getTask(2).getDependencies(), new int[] {1});
+            assert !legacyDatabase.addDependency(1, 2);
+
+            errorMessage = "A task couldn't be claimed after migrating";
+            assert legacyDatabase.updateClaim(1, "odo@anarres.org");
+            assert legacyDatabase.getTask(1).getClaimed();
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            legacyDatabase.close();
+            new File("legacyDB.sqlite").delete(); // so it isn't left in the working tree
+            testDatabase = new Database(test_url);
+        }
+    }
+
+    @Test
+    public void testFailedMigration(){
+        String broken_url = "jdbc:sqlite:brokenDB.sqlite";
+
+        // a Tasks table without the old dependency columns, which the first migration reads
+        try (Connection connection = DriverManager.getConnection(broken_url)){
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE IF EXISTS Tasks");
+            statement.execute("CREATE TABLE Tasks (ID INTEGER PRIMARY KEY, taskName TEXT NOT NULL, " +
+                    "description TEXT, requirements TEXT, dateCreated NUMBER NOT NULL, dateDue NUMBER, " +
+                    "dateComplete NUMBER, isComplete INT, isClaimed INT, claimedByEmail TEXT)");
+            statement.execute("PRAGMA user_version = 0");
+        }
+        catch (SQLException e){
+            e.printStackTrace();
+        }
+
+        try {
+            errorMessage = "A database whose migration failed was opened anyway";
+            try {
+                new Database(broken_url).close();
+                assert false;
+            }
+            catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            new File("brokenDB.sqlite").delete();
+        }
+    }
+
+    @Test
+    public void testDataVersion(){
+        clearTable();
+        populateTable();
+        long version = testDatabase.getDataVersion();
+
+        try {
+            errorMessage = "A read or a write that changed nothing changed the data version";
+            testDatabase.getAllTasks();
+            testDatabase.completeTask(1000);
+            testDatabase.removeDependency(3, 1);
+            assert testDatabase.getDataVersion() == version;
+
+            errorMessage = "A write that changed the tasks didn't increase the data version";
+            testDatabase.addDependency(3, 1);
+            assert testDatabase.getDataVersion() > version;
+            version = testDatabase.getDataVersion();
+            testDatabase.updateClaim(2, "shevek@abbenay.org");
+            assert testDatabase.getDataVersion() > version;
+
+            // a removal is the newest change, so only its tombstone holds the version
+            errorMessage = "A removal after opening the database again reused the last removal's version";
+            assert testDatabase.removeTask(5);
+            version = testDatabase.getDataVersion();
+            testDatabase.close();
+            testDatabase = new Database(test_url);
+            assert testDatabase.getDataVersion() == version;
+            assert testDatabase.removeTask(4);
+            assert testDatabase.getDataVersion() == version + 1;
+            assert Arrays.equals(testDatabase.getRemovedTaskIDs(version - 1), new int[] {5, 4});
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testChangesSince() throws IOException {
+        clearTable();
+        populateTable();
+        long version = testDatabase.getDataVersion();
+
+        testDatabase.updateClaim(2, "shevek@abbenay.org");
+        testDatabase.addDependency(4, 1);
+        testDatabase.removeTask(5);
+
+        List<Integer> changedIDs = new ArrayList<>();
+        try {
+            errorMessage = "streamChangedTasks() failed";
+            assert testDatabase.streamChangedTasks(version, task -> changedIDs.add(task.getID()));
+            errorMessage = "streamChangedTasks() didn't return exactly the changed tasks, oldest change first";
+            assert changedIDs.size() == 3 && changedIDs.get(0) == 2;
+            assert changedIDs.contains(1) && changedIDs.contains(4);
+            errorMessage = "getRemovedTaskIDs() didn't return the removed task";
+            assert testDatabase.getRemovedTaskIDs(version).length == 1;
+            assert testDatabase.getRemovedTaskIDs(version)[0] == 5;
+
+            errorMessage = "The data version didn't carry on when the database was opened again";
+            version = testDatabase.getDataVersion();
+            testDatabase.close();
+            testDatabase = new Database(test_url);
+            assert testDatabase.getDataVersion() == version;
+
+            errorMessage = "Tasks or removals from before the version asked about were returned";
+            changedIDs.clear();
+            assert testDatabase.streamChangedTasks(version, task -> changedIDs.add(task.getID()));
+            assert changedIDs.isEmpty();
+            assert testDatabase.getRemovedTaskIDs(version).length == 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testQueryPlans() throws IOException {
+        clearTable();
+        populateTable();
+
+        // run every statement Database has, so each is prepared and checked
+        testDatabase.getAllTasks();
+        testDatabase.getCompleteTasks();
+        testDatabase.getIncompleteTasks();
+        testDatabase.getAllTasks(Database.FIRST_PAGE, 2);
+        testDatabase.getCompleteTasks(Database.FIRST_PAGE, 2);
+        testDatabase.getIncompleteTasks(Database.FIRST_PAGE, 2);
+        testDatabase.streamChangedTasks(0, task -> { });
+        testDatabase.streamReadyTasks(task -> { });
+        testDatabase.getRemovedTaskIDs(0);
+        testDatabase.getTask(1);
+        testDatabase.getDependencyTasks(1);
+        testDatabase.search("test");
+        testDatabase.search("!!");
+        testDatabase.getDatabaseCount();
+        testDatabase.addDependency(3, 1);
+        testDatabase.removeDependency(3, 1);
+        testDatabase.completeTask(1);
+        testDatabase.updateClaim(2, "shevek@abbenay.org");
+        testDatabase.addTasks(List.of(testDatabase.getTask(2)), new int[][] {{}});
+        testDatabase.removeTask(4);
+
+        try {
+            errorMessage = "A statement reads a whole table it has an index for";
+            List<String> fullScans = testDatabase.checkQueryPlans();
+            assert fullScans != null && fullScans.isEmpty() : fullScans;
         }
         catch (AssertionError e){
             System.out.println(errorMessage);
             throw e;
         }
+
+        try (Connection connection = DriverManager.getConnection(test_url)){
+            Statement statement = connection.createStatement();
+            statement.execute("DROP INDEX IncompleteTasks");
+            testDatabase.close();
+            testDatabase = new Database(test_url);
+            testDatabase.getIncompleteTasks(Database.FIRST_PAGE, 2);
+
+            errorMessage = "checkQueryPlans() didn't notice the incomplete tasks list had lost its index";
+            List<String> fullScans = testDatabase.checkQueryPlans();
+            assert fullScans.size() == 1 : fullScans;
+            statement.execute("CREATE INDEX IncompleteTasks ON Tasks (ID) WHERE isComplete == 0");
+        }
+        catch (SQLException e){
+            e.printStackTrace();
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testResponseCacheInvalidation(){
+        clearTable();
+        populateTable();
+        ResponseCache cache = new ResponseCache(testDatabase);
+        long version = testDatabase.getDataVersion();
+
+        cache.put("get_task/1", new byte[] {1}, Set.of(1), version);
+        cache.put("get_task/2", new byte[] {2}, Set.of(2), version);
+        cache.put("get_incomplete_tasks", new byte[] {3}, Set.of(ResponseCache.INCOMPLETE_TASKS, 1, 2), version);
+        cache.put("search/test", new byte[] {4}, Set.of(ResponseCache.SEARCH_RESULTS, 1), version);
+
+        try {
+            errorMessage = "Claiming a task didn't drop exactly the responses it was in";
+            testDatabase.updateClaim(2, "shevek@abbenay.org");
+            assert cache.get("get_task/2") == null && cache.get("get_incomplete_tasks") == null;
+            assert cache.get("get_task/1") != null && cache.get("search/test") != null;
+
+            errorMessage = "Adding a dependency didn't drop the responses holding either task";
+            testDatabase.addDependency(3, 1);
+            assert cache.get("get_task/1") == null && cache.get("search/test") == null;
+
+            errorMessage = "A response read before a change was cached after it";
+            cache.put("get_task/4", new byte[] {5}, Set.of(4), version);
+            assert cache.get("get_task/4") == null;
+
+            errorMessage = "Adding a task didn't drop the cached task lists";
+            cache.put("get_all_tasks", new byte[] {6}, Set.of(ResponseCache.ALL_TASKS), testDatabase.getDataVersion());
+            assert cache.get("get_all_tasks") != null;
+            populateTable();
+            assert cache.get("get_all_tasks") == null;
+            assert cache.getEntryCount() == 0 && cache.getBytes() == 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testRemoveDependency(){
+        clearTable();
+        populateTable();
+        testDatabase.addDependency(3, 1);
+        testDatabase.removeDependency(3,1);
+
+        Task dependency = testDatabase.getTask(1);
+        Task dependent = testDatabase.getTask(3);
+
+        try{
+            errorMessage = "The dependent task was not removed from the dependency's dependents";
+            assert dependency.getDependents().length == 0;
+            errorMessage = "The dependency was not removed from the dependent task's dependencies";
+            assert dependent.getDependencies().length == 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testGraphAnalytics(){
+        clearTable();
+        for (int i = 0; i < 5; i++) {
+            Task task = new Task(String.format("Test Row #%s", i + 1), "This is a test",
+                    new ArrayList<>(), 1000L * (i + 1), false, new int[0]);
+            testDatabase.addTask(task);
+        }
+        testDatabase.addDependency(4, 3);
+        testDatabase.addDependency(3, 1);
+        testDatabase.addDependency(3, 2);
+        testDatabase.addDependency(2, 1);
+
+        try {
+            errorMessage = "getAllDependencyTasks() didn't return every dependency, each after its own";
+            List<Integer> closure = new ArrayList<>();
+            for (Task task : testDatabase.getAllDependencyTasks(4)) {
+                closure.add(task.getID());
+            }
+            assert closure.equals(Arrays.asList(1, 2, 3));
+            assert testDatabase.getAllDependencyTasks(1).isEmpty();
+
+            errorMessage = "getTopologicalOrder() put a task before one it depends on";
+            int[][] order = testDatabase.getTopologicalOrder();
+            assert order[0].length == 5 && order[1].length == 0;
+            List<Integer> positions = new ArrayList<>();
+            for (int ID : order[0]) {
+                positions.add(ID);
+            }
+            assert positions.indexOf(1) < positions.indexOf(2);
+            assert positions.indexOf(2) < positions.indexOf(3);
+            assert positions.indexOf(3) < positions.indexOf(4);
+
+            errorMessage = "getCriticalPath() didn't follow the dependencies that finish latest";
+            List<Integer> path = new ArrayList<>();
+            for (Task task : testDatabase.getCriticalPath(4)) {
+                path.add(task.getID());
+            }
+            assert path.equals(Arrays.asList(1, 2, 3, 4));
+
+            errorMessage = "getCriticalPath() kept a complete task on the path";
+            testDatabase.completeTask(1);
+            path.clear();
+            for (Task task : testDatabase.getCriticalPath(4)) {
+                path.add(task.getID());
+            }
+            assert path.equals(Arrays.asList(2, 3, 4));
+            assert testDatabase.getCriticalPath(99).isEmpty();
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testGraphAnalyticsOnLargeGraphs(){
+        // a chain far deeper than a recursive walk could go, and a cycle hanging off the end of it
+        int chainLength = 200000;
+        DependencyGraph graph = new DependencyGraph();
+        for (int ID = 1; ID <= chainLength + 2; ID++) {
+            graph.addTask(ID);
+        }
+        for (int ID = 2; ID <= chainLength; ID++) {
+            graph.addDependency(ID, ID - 1);
+        }
+        graph.addDependency(chainLength + 1, chainLength + 2);
+        graph.addDependency(chainLength + 2, chainLength + 1);
+
+        try {
+            errorMessage = "getAllDependencies() didn't walk the whole chain";
+            int[] dependencies = graph.getAllDependencies(chainLength);
+            assert dependencies.length == chainLength - 1;
+            assert dependencies[0] == 1 && dependencies[chainLength - 2] == chainLength - 1;
+
+            errorMessage = "getTopologicalOrder() didn't separate the cycle from the chain";
+            int[][] order = graph.getTopologicalOrder();
+            assert order[0].length == chainLength;
+            assert order[1].length == 2;
+
+            errorMessage = "getAllDependencies() included the task itself when it's in a cycle";
+            assert Arrays.equals(graph.getAllDependencies(chainLength + 1), new int[] {chainLength + 2});
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testMigrateDependencyColumns(){
+        clearTable();
+        populateTable();
+        testDatabase.close();
+
+        // write dependencies the way databases created before the Dependencies table stored them
+        try (Connection connection = DriverManager.getConnection(test_url)){
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("UPDATE Tasks SET dependencies = '1*2*' WHERE ID == 3");
+            statement.executeUpdate("UPDATE Tasks SET dependents = '3*' WHERE ID == 1 OR ID == 2");
+            statement.execute("PRAGMA user_version = 0");
+        }
+        catch (SQLException e){
+            e.printStackTrace();
+        }
+        testDatabase = new Database(test_url);
+
+        int[] expectedDependencies = {1, 2};
+        int[] expectedDependents = {3};
+
+        try {
+            errorMessage = "Dependencies stored in the old columns weren't migrated";
+            assert Arrays.equals(testDatabase.getTask(3).getDependencies(), expectedDependencies);
+            errorMessage = "Dependents stored in the old columns weren't migrated";
+            assert Arrays.equals(testDatabase.getTask(1).getDependents(), expectedDependents);
+            assert Arrays.equals(testDatabase.getTask(2).getDependents(), expectedDependents);
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testWriteJSON() throws IOException {
+        clearTable();
+        populateTable();
+        testDatabase.addDependency(3, 1);
+        testDatabase.updateClaim(2, "shevek@abbenay.org");
+        testDatabase.completeTask(4);
+
+        try {
+            errorMessage = "Task.writeJSON() didn't write the same JSON as Task.toJSON()";
+            for (Task task : testDatabase.getAllTasks()) {
+                StringWriter out = new StringWriter();
+                task.writeJSON(out);
+                assert new JSONObject(out.toString()).similar(task.toJSON());
+            }
+
+            errorMessage = "Task IDs weren't sent as strings";
+            assert testDatabase.getTask(3).toJSON().getJSONArray("dependencies").get(0).equals("1");
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testTaskListCutShort() throws IOException {
+        clearTable();
+        for (int i = 0; i < 20; i++) {
+            populateTable();
+        }
+        ChangeFeed feed = new ChangeFeed(testDatabase);
+        RequestHandler handler = new RequestHandler(testDatabase, null, new ResponseCompression(),
+                new ResponseCache(testDatabase), feed);
+
+        try {
+            // the client goes away partway through the list, so writing a task to it throws
+            errorMessage = "A task list that failed partway through didn't end with status code 1";
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            TestExchange failing = new TestExchange("/get_all_tasks", null, new DroppingStream(received, 1000));
+            try {
+                handler.handle(failing);
+                assert false;
+            }
+            catch (IOException e) {
+                // expected
+            }
+            String body = received.toString(StandardCharsets.UTF_8);
+            assert body.contains("\"Test Row #1\"");
+            assert body.endsWith("],\"status_code\":1}");
+
+            errorMessage = "A task list that failed partway through was cached";
+            TestExchange exchange = new TestExchange("/get_all_tasks", null);
+            handler.handle(exchange);
+            JSONObject response = new JSONObject(exchange.getBody().toString(StandardCharsets.UTF_8));
+            assert response.getInt("status_code") == 0;
+            assert response.getJSONArray("results").length() == 100;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            feed.close();
+        }
+    }
+
+    @Test
+    public void testETagRevalidation() throws IOException {
+        clearTable();
+        populateTable();
+        ChangeFeed feed = new ChangeFeed(testDatabase);
+        RequestHandler handler = new RequestHandler(testDatabase, null, new ResponseCompression(),
+                new ResponseCache(testDatabase), feed);
+
+        try {
+            errorMessage = "A task read didn't get a tag";
+            TestExchange first = new TestExchange("/get_task/1", null);
+            handler.handle(first);
+            String eTag = first.getResponseHeaders().getFirst("ETag");
+            assert first.getResponseCode() == 200 && eTag != null;
+
+            errorMessage = "A client with the current tag wasn't told its copy is current";
+            TestExchange revalidated = new TestExchange("/get_task/1", null);
+            revalidated.getRequestHeaders().set("If-None-Match", eTag);
+            handler.handle(revalidated);
+            assert revalidated.getResponseCode() == 304 && revalidated.getBody().size() == 0;
+
+            errorMessage = "A client with a tag from before a write was told its copy is current";
+            testDatabase.updateClaim(1, "shevek@abbenay.org");
+            TestExchange changed = new TestExchange("/get_task/1", null);
+            changed.getRequestHeaders().set("If-None-Match", eTag);
+            handler.handle(changed);
+            assert changed.getResponseCode() == 200;
+            assert !changed.getResponseHeaders().getFirst("ETag").equals(eTag);
+            assert new JSONObject(changed.getBody().toString(StandardCharsets.UTF_8)).getJSONArray("results")
+                    .getJSONObject(0).getBoolean("is_claimed");
+
+            // refusals aren't data, so a client mustn't keep them or be told they're current
+            errorMessage = "A task list refused for its limit got a tag, or a 304";
+            TestExchange badLimit = new TestExchange("/get_all_tasks?limit=0", null);
+            badLimit.getRequestHeaders().set("If-None-Match", "*");
+            handler.handle(badLimit);
+            assert badLimit.getResponseCode() == 200 && badLimit.getResponseHeaders().getFirst("ETag") == null;
+            assert new JSONObject(badLimit.getBody().toString(StandardCharsets.UTF_8)).getInt("status_code") == 1;
+
+            errorMessage = "A task list refused for its cursor got a tag";
+            TestExchange badCursor = new TestExchange("/get_all_tasks?cursor=bm90LWEtY3Vyc29y", null);
+            handler.handle(badCursor);
+            assert badCursor.getResponseHeaders().getFirst("ETag") == null;
+            assert new JSONObject(badCursor.getBody().toString(StandardCharsets.UTF_8)).getInt("status_code") == 1;
+
+            errorMessage = "A read refused for its missing argument got a tag, or a 304";
+            TestExchange noArgument = new TestExchange("/get_task", null);
+            noArgument.getRequestHeaders().set("If-None-Match", "*");
+            handler.handle(noArgument);
+            assert noArgument.getResponseCode() == 200 && noArgument.getResponseHeaders().getFirst("ETag") == null;
+            assert new JSONObject(noArgument.getBody().toString(StandardCharsets.UTF_8)).getInt("status_code") == 1;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            feed.close();
+        }
+    }
+
+    @Test
+    public void testSessionTokens() throws Exception {
+        SessionTokens tokens = new SessionTokens(SessionTokens.DEFAULT_TTL_SECONDS);
+        String token = tokens.issue();
+        int signatureStart = token.lastIndexOf('.');
+        String signature = token.substring(signatureStart + 1);
+
+        try {
+            errorMessage = "A token wasn't accepted by the tokens that issued it";
+            assert tokens.check(token);
+            long expiry = SessionTokens.getExpiry(token);
+            assert expiry > System.currentTimeMillis() && expiry <= System.currentTimeMillis() + tokens.getTTLMillis();
+
+            errorMessage = "A token with a changed expiry or random part was accepted";
+            assert !tokens.check((expiry + 1000) + token.substring(token.indexOf('.')));
+            String random = token.substring(token.indexOf('.') + 1, signatureStart);
+            String otherRandom = (random.charAt(0) == 'A' ? 'B' : 'A') + random.substring(1);
+            assert !tokens.check(expiry + "." + otherRandom + "." + signature);
+
+            errorMessage = "A token with a changed signature was accepted";
+            String otherSignature = signature.substring(0, signature.length() - 1) +
+                    (signature.endsWith("A") ? 'B' : 'A');
+            assert !tokens.check(token.substring(0, signatureStart + 1) + otherSignature);
+            assert !tokens.check(token.substring(0, token.length() - 1));
+            assert !tokens.check(token + "A");
+
+            errorMessage = "A token signed with another key was accepted";
+            assert !new SessionTokens(SessionTokens.DEFAULT_TTL_SECONDS).check(token);
+
+            errorMessage = "A malformed token was accepted";
+            for (String malformed : new String[] {null, "", ".", "..", "abc", token.substring(0, signatureStart),
+                    signature, "." + signature, "x.y." + signature}) {
+                assert !tokens.check(malformed);
+            }
+
+            errorMessage = "Tokens checked from many threads at once weren't all accepted";
+            ExecutorService threads = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<Boolean>> checks = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    checks.add(threads.submit(() -> tokens.check(tokens.issue())));
+                }
+                for (Future<Boolean> check : checks) {
+                    assert check.get();
+                }
+            }
+            finally {
+                threads.shutdown();
+            }
+
+            errorMessage = "An expired token was accepted";
+            SessionTokens shortTokens = new SessionTokens(1);
+            String shortToken = shortTokens.issue();
+            assert shortTokens.check(shortToken);
+            Thread.sleep(SessionTokens.getExpiry(shortToken) - System.currentTimeMillis() + 10);
+            assert !shortTokens.check(shortToken);
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testNonceStore() throws Exception {
+        InetAddress client = InetAddress.getByName("10.0.0.1");
+        InetAddress otherClient = InetAddress.getByName("10.0.0.2");
+
+        try (NonceStore store = new NonceStore(60, 3, 5)) {
+            errorMessage = "A nonce couldn't be used once by the client it was issued to";
+            assert store.add(client, "a");
+            assert store.get(client).equals(List.of("a"));
+            assert !store.consume(otherClient, "a");
+            assert !store.consume(client, "never issued");
+            assert store.consume(client, "a");
+
+            errorMessage = "A nonce could be used twice";
+            assert !store.consume(client, "a");
+            assert store.get(client).isEmpty() && store.getSize() == 0;
+
+            errorMessage = "A client's oldest nonce wasn't pushed out by one past its limit";
+            for (String nonce : new String[] {"b", "c", "d", "e"}) {
+                assert store.add(client, nonce);
+            }
+            assert store.get(client).equals(List.of("c", "d", "e"));
+            assert !store.consume(client, "b");
+            assert store.getStats().getLong("evicted") == 1;
+
+            errorMessage = "The store took more nonces than its limit, or refused one under it";
+            assert store.add(otherClient, "f");
+            assert store.add(otherClient, "g");
+            assert !store.add(otherClient, "h");
+            assert store.getSize() == 5 && store.getStats().getLong("refused") == 1;
+            assert store.consume(client, "c");
+            assert store.add(otherClient, "h");
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+
+        try (NonceStore store = new NonceStore(1, 3, 5)) {
+            errorMessage = "A nonce didn't expire after its TTL";
+            assert store.add(client, "a");
+            assert waitFor(() -> store.get(client).isEmpty());
+            assert !store.consume(client, "a");
+
+            errorMessage = "The sweeper didn't remove an expired nonce";
+            assert waitFor(() -> store.getSize() == 0);
+            assert store.getStats().getLong("expired") == 1;
+            assert store.getStats().getInt("clients") == 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testCompressionNegotiation(){
+        try {
+            errorMessage = "An Accept-Encoding header wasn't read correctly";
+            assert ResponseCompression.chooseEncoding(null) == null;
+            assert ResponseCompression.chooseEncoding("gzip").equals("gzip");
+            assert ResponseCompression.chooseEncoding("x-gzip").equals("gzip");
+            assert ResponseCompression.chooseEncoding("GZIP").equals("gzip");
+            assert ResponseCompression.chooseEncoding("deflate").equals("deflate");
+            assert ResponseCompression.chooseEncoding("gzip, deflate, br").equals("gzip");
+            assert ResponseCompression.chooseEncoding("gzip;q=0.5, deflate;q=0.9").equals("deflate");
+
+            errorMessage = "An encoding the client refused with q=0 was chosen";
+            assert ResponseCompression.chooseEncoding("gzip;q=0") == null;
+            assert ResponseCompression.chooseEncoding("gzip; q=0, deflate").equals("deflate");
+            assert ResponseCompression.chooseEncoding("gzip;q=0.0, deflate;q=0") == null;
+            assert ResponseCompression.chooseEncoding("gzip;q=nonsense") == null;
+
+            errorMessage = "identity, or a client that asks for no encoding, got a compressed body";
+            assert ResponseCompression.chooseEncoding("identity") == null;
+            assert ResponseCompression.chooseEncoding("") == null;
+            assert ResponseCompression.chooseEncoding("br, identity;q=0.5") == null;
+
+            errorMessage = "* didn't stand for the encodings the header doesn't list";
+            assert ResponseCompression.chooseEncoding("*").equals("gzip");
+            assert ResponseCompression.chooseEncoding("*;q=0") == null;
+            assert ResponseCompression.chooseEncoding("gzip;q=0, *").equals("deflate");
+            assert ResponseCompression.chooseEncoding("deflate, *;q=0").equals("deflate");
+
+            errorMessage = "Compression wasn't negotiated from the request, or was while it's turned off";
+            TestExchange exchange = new TestExchange("/get_all_tasks", "deflate");
+            assert new ResponseCompression().negotiate(exchange, 4096).equals("deflate");
+            assert exchange.getResponseHeaders().getFirst("Vary").equals("Accept-Encoding");
+            assert new ResponseCompression(ResponseCompression.DISABLED, 6).negotiate(exchange, 4096) == null;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testCompressionRoundTrip() throws IOException {
+        ResponseCompression compression = new ResponseCompression(1024, Deflater.DEFAULT_COMPRESSION);
+        byte[] body = makeBody(20000);
+
+        try {
+            errorMessage = "A body under the minimum size was compressed";
+            assert compression.negotiate(new TestExchange("/", "gzip"), 1023) == null;
+            assert compression.negotiate(new TestExchange("/", "gzip"), 1024).equals("gzip");
+            TestExchange small = new TestExchange("/", "gzip");
+            compression.send(small, 200, Arrays.copyOf(body, 1023));
+            assert small.getResponseHeaders().getFirst("Content-Encoding") == null;
+            assert Arrays.equals(small.getBody().toByteArray(), Arrays.copyOf(body, 1023));
+            assert small.getResponseLength() == 1023;
+
+            errorMessage = "A streamed body under the minimum size wasn't sent as it is, with its length";
+            small = new TestExchange("/", "gzip");
+            try (OutputStream out = compression.open(small, 200)) {
+                out.write(body, 0, 1000);
+            }
+            assert small.getResponseHeaders().getFirst("Content-Encoding") == null;
+            assert Arrays.equals(small.getBody().toByteArray(), Arrays.copyOf(body, 1000));
+            assert small.getResponseLength() == 1000;
+
+            errorMessage = "A gzip body didn't decompress to what was sent";
+            TestExchange sent = new TestExchange("/", "gzip");
+            compression.send(sent, 200, body);
+            assert sent.getResponseHeaders().getFirst("Content-Encoding").equals("gzip");
+            assert sent.getBody().size() < body.length;
+            assert Arrays.equals(gunzip(sent.getBody().toByteArray()), body);
+
+            errorMessage = "A streamed gzip body didn't decompress to what was written";
+            TestExchange streamed = new TestExchange("/", "gzip");
+            try (OutputStream out = compression.open(streamed, 200)) {
+                for (int offset = 0; offset < body.length; offset += 300) { // crosses the minimum size midway
+                    out.write(body, offset, Math.min(300, body.length - offset));
+                }
+            }
+            assert streamed.getResponseHeaders().getFirst("Content-Encoding").equals("gzip");
+            assert streamed.getResponseLength() == 0; // chunked
+            assert Arrays.equals(gunzip(streamed.getBody().toByteArray()), body);
+
+            errorMessage = "A deflate body didn't decompress to what was sent";
+            byte[] deflated = compression.compress(body, "deflate");
+            assert Arrays.equals(new InflaterInputStream(new ByteArrayInputStream(deflated)).readAllBytes(), body);
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testCompressionDeflaterPool() throws IOException {
+        byte[] body = makeBody(20000);
+
+        try {
+            errorMessage = "A deflater wasn't returned to the pool and reused";
+            ResponseCompression compression = new ResponseCompression();
+            assert compression.getPooledDeflaters("gzip") == 0;
+            for (int i = 0; i < 3; i++) {
+                assert Arrays.equals(gunzip(compression.compress(body, "gzip")), body);
+                assert compression.getPooledDeflaters("gzip") == 1;
+            }
+            compression.compress(body, "deflate");
+            assert compression.getPooledDeflaters("deflate") == 1 && compression.getPooledDeflaters("gzip") == 1;
+
+            // the client goes away while the gzip header, the body, or the trailer written on close is being sent
+            for (int limit : new int[] {0, 100, 1000}) {
+                errorMessage = "A deflater wasn't returned to the pool after a write failed at byte " + limit;
+                compression = new ResponseCompression();
+                TestExchange failing = new TestExchange("/", "gzip",
+                        new DroppingStream(new ByteArrayOutputStream(), limit));
+                boolean failed = false;
+                try (OutputStream out = compression.open(failing, 200)) {
+                    for (int offset = 0; offset < body.length; offset += 4096) {
+                        out.write(body, offset, Math.min(4096, body.length - offset));
+                    }
+                }
+                catch (IOException e) {
+                    failed = true;
+                }
+                assert failed;
+                assert compression.getPooledDeflaters("gzip") == 1;
+
+                errorMessage = "A deflater returned after a failed write wasn't reset";
+                assert Arrays.equals(gunzip(compression.compress(body, "gzip")), body);
+                assert compression.getPooledDeflaters("gzip") == 1;
+            }
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testCheckCredentials() throws Exception {
+        Path credentials = Files.createTempFile("auth", ".txt");
+        Files.writeString(credentials, "passwordhash\n");
+        ServerSideAuthentication auth = new ServerSideAuthentication(credentials);
+        InetAddress client = InetAddress.getByName("10.0.0.1");
+
+        try {
+            errorMessage = "The hash for the nonce the client answered wasn't accepted, or was accepted twice";
+            String nonce = auth.getNonce(client);
+            String answer = sha3("passwordhash" + nonce);
+            assert auth.checkCredentials(answer + " " + nonce, client);
+            assert !auth.checkCredentials(answer + " " + nonce, client);
+
+            errorMessage = "A nonce wasn't used up by a wrong answer";
+            nonce = auth.getNonce(client);
+            assert !auth.checkCredentials(sha3("wrong" + nonce) + " " + nonce, client);
+            assert !auth.checkCredentials(sha3("passwordhash" + nonce) + " " + nonce, client);
+
+            errorMessage = "A nonce issued to another client was accepted";
+            nonce = auth.getNonce(client);
+            assert !auth.checkCredentials(sha3("passwordhash" + nonce) + " " + nonce,
+                    InetAddress.getByName("10.0.0.2"));
+
+            errorMessage = "A hash sent without its nonce wasn't checked against the newest nonce";
+            auth.getNonce(client);
+            nonce = auth.getNonce(client);
+            assert auth.checkCredentials(sha3("passwordhash" + nonce), client);
+            nonce = auth.getNonce(client);
+            assert !auth.checkCredentials(sha3("wrong" + nonce), client);
+            assert !auth.checkCredentials(sha3("passwordhash" + nonce), client);
+
+            errorMessage = "Missing or malformed credentials were accepted";
+            assert !auth.checkCredentials(null, client);
+            assert !auth.checkCredentials("", client);
+            assert !auth.checkCredentials(" ", client);
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            auth.getNonceStore().close();
+            Files.delete(credentials);
+        }
+    }
+
+    @Test
+    public void testMetrics(){
+        Metrics metrics = new Metrics("test_request", "route", "Request latency");
+        Metrics.Operation route = metrics.register("get_task");
+        for (int i = 1; i <= 100; i++) {
+            route.getLatency().record(i * 1000L); // 1 to 100 microseconds
+        }
+        route.error();
+        long start = route.begin(); // still running when the metrics are written out
+        metrics.get("not_a_route").getLatency().record(5000);
+        metrics.counter("test_cache_hits_total", "Cache hits", () -> 7);
+
+        try {
+            errorMessage = "A histogram bucket didn't start where the one before it ended, or held the wrong values";
+            int buckets = Metrics.Histogram.bucketIndex((1L << 40) - 1) + 1;
+            long next = 0;
+            for (int i = 0; i < buckets; i++) {
+                long lower = Metrics.Histogram.bucketLowerBound(i);
+                long upper = lower + Metrics.Histogram.bucketWidth(i) - 1;
+                assert lower == next;
+                assert Metrics.Histogram.bucketIndex(lower) == i && Metrics.Histogram.bucketIndex(upper) == i;
+                // every bucket is within 1/32 of the values in it
+                assert Metrics.Histogram.bucketWidth(i) <= Math.max(1, lower / 32);
+                next = upper + 1;
+            }
+
+            StringBuilder out = new StringBuilder();
+            metrics.writePrometheus(out);
+            String text = out.toString();
+
+            errorMessage = "The metrics weren't declared as Prometheus expects";
+            assert text.contains("# HELP test_request_seconds Request latency\n");
+            assert text.contains("# TYPE test_request_seconds summary\n");
+            assert text.contains("# TYPE test_request_errors_total counter\n");
+            assert text.contains("# TYPE test_request_in_flight gauge\n");
+            assert text.contains("# TYPE test_cache_hits_total counter\ntest_cache_hits_total 7\n");
+
+            errorMessage = "The latency count, sum or quantiles were wrong";
+            assert sample(text, "test_request_seconds_count{route=\"get_task\"}") == 100;
+            assert Math.abs(sample(text, "test_request_seconds_sum{route=\"get_task\"}") - 0.00505) < 1e-12;
+            double[][] quantiles = {{0.5, 50e-6}, {0.9, 90e-6}, {0.99, 99e-6}, {0.999, 100e-6}};
+            for (double[] quantile : quantiles) {
+                String series = "test_request_seconds{route=\"get_task\",quantile=\"" + quantile[0] + "\"}";
+                double value = sample(text, series);
+                assert Math.abs(value - quantile[1]) <= quantile[1] / 32;
+            }
+
+            errorMessage = "The error count or in-flight gauge was wrong";
+            assert sample(text, "test_request_errors_total{route=\"get_task\"}") == 1;
+            assert sample(text, "test_request_in_flight{route=\"get_task\"}") == 1;
+
+            errorMessage = "An unregistered operation wasn't recorded under \"other\"";
+            assert sample(text, "test_request_seconds_count{route=\"other\"}") == 1;
+            assert !text.contains("not_a_route");
+
+            errorMessage = "An empty histogram didn't report zero";
+            Metrics.Histogram.Snapshot empty = new Metrics.Histogram().snapshot();
+            assert empty.getCount() == 0 && empty.getSum() == 0 && empty.valueAt(0.99) == 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            route.end(start);
+        }
+    }
+
+    @Test
+    public void testPoolStats(){
+        clearTable();
+        populateTable();
+        testDatabase.getAllTasks();
+        testDatabase.getTask(3);
+        ConnectionPool.Stats stats = testDatabase.getPoolStats();
+
+        try {
+            errorMessage = "A connection was not returned to the pool";
+            assert stats.getBorrowed() == 0;
+            errorMessage = "The pool opened more connections than its size";
+            assert stats.getOpen() <= stats.getSize();
+            errorMessage = "The pool didn't count the connections it handed out";
+            assert stats.getBorrowCount() > 0;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+    }
+
+    @Test
+    public void testChangeFeedFanOut(){
+        ChangeFeed feed = new ChangeFeed(testDatabase, 16, 10);
+        try {
+            List<ByteArrayOutputStream> clients = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                clients.add(new ByteArrayOutputStream());
+                feed.subscribe(clients.get(i), () -> { }, null);
+            }
+            long version = testDatabase.getDataVersion();
+            for (int i = 1; i <= 3; i++) {
+                feed.onChange(version + i, DatabaseListener.Change.ADDED, new int[] {i}, new int[0]);
+            }
+
+            errorMessage = "A subscriber didn't get every event, in order";
+            for (ByteArrayOutputStream client : clients) {
+                assert waitFor(() -> countEvents(client, "task_created") == 3);
+                String events = client.toString(StandardCharsets.UTF_8);
+                assert events.indexOf(":" + (version + 1) + "\n") < events.indexOf(":" + (version + 3) + "\n");
+            }
+
+            errorMessage = "A subscriber with an event ID from another stream wasn't sent a reset";
+            ByteArrayOutputStream stranger = new ByteArrayOutputStream();
+            feed.subscribe(stranger, () -> { }, "elsewhere:1");
+            assert waitFor(() -> countEvents(stranger, "reset") == 1);
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            feed.close();
+        }
+    }
+
+    @Test
+    public void testChangeFeedReset(){
+        ChangeFeed feed = new ChangeFeed(testDatabase, 4, 10, 2, ChangeFeed.DEFAULT_WRITE_TIMEOUT_MILLIS);
+        try {
+            ByteArrayOutputStream first = new ByteArrayOutputStream();
+            feed.subscribe(first, () -> { }, null);
+            long version = testDatabase.getDataVersion();
+            for (int i = 1; i <= 10; i++) {
+                feed.onChange(version + i, DatabaseListener.Change.COMPLETED, new int[] {i}, new int[0]);
+                waitFor(() -> countEvents(first, "task_completed") > 0); // so it keeps up
+            }
+            waitFor(() -> countEvents(first, "task_completed") + countEvents(first, "reset") >= 10);
+            String frame = first.toString(StandardCharsets.UTF_8);
+            String streamID = frame.substring(4, frame.indexOf(':', 4));
+
+            errorMessage = "A client reconnecting within the ring wasn't sent just what it missed";
+            ByteArrayOutputStream recent = new ByteArrayOutputStream();
+            feed.subscribe(recent, () -> { }, streamID + ":" + (version + 8));
+            assert waitFor(() -> countEvents(recent, "task_completed") == 2);
+            assert countEvents(recent, "reset") == 0;
+
+            errorMessage = "A client reconnecting after the ring moved on wasn't sent a reset";
+            ByteArrayOutputStream old = new ByteArrayOutputStream();
+            feed.subscribe(old, () -> { }, streamID + ":" + (version + 1));
+            assert waitFor(() -> countEvents(old, "reset") == 1);
+            assert countEvents(old, "task_completed") == 0;
+
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            feed.close();
+        }
+
+        ChangeFeed slowFeed = new ChangeFeed(testDatabase, 16, 10, 2, ChangeFeed.DEFAULT_WRITE_TIMEOUT_MILLIS);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            errorMessage = "A client that fell behind its queue wasn't sent a reset";
+            ByteArrayOutputStream slow = new ByteArrayOutputStream();
+            slowFeed.subscribe(new BlockingStream(slow, release), () -> { }, null);
+            long version = testDatabase.getDataVersion();
+            for (int i = 1; i <= 10; i++) {
+                slowFeed.onChange(version + i, DatabaseListener.Change.COMPLETED, new int[] {i}, new int[0]);
+            }
+            waitFor(() -> slowFeed.getResetCount() > 0);
+            release.countDown();
+            assert waitFor(() -> countEvents(slow, "reset") >= 1);
+            assert countEvents(slow, "task_completed") < 10;
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            release.countDown();
+            slowFeed.close();
+        }
+    }
+
+    @Test
+    public void testChangeFeedSubscriberCap() throws Exception {
+        ChangeFeed feed = new ChangeFeed(testDatabase, 16, 10);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            // many clients at once can't take more than the slots there are
+            List<Future<Boolean>> subscribes = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                subscribes.add(threads.submit(() -> feed.subscribe(new ByteArrayOutputStream(), () -> { }, null)));
+            }
+            int accepted = 0;
+            for (Future<Boolean> subscribe : subscribes) {
+                accepted += subscribe.get() ? 1 : 0;
+            }
+
+            errorMessage = "subscribe() let in a different number of subscribers than the cap";
+            assert accepted == 10;
+            assert feed.getSubscriberCount() == 10;
+            assert !feed.subscribe(new ByteArrayOutputStream(), () -> { }, null);
+
+            errorMessage = "A client that went away didn't give up its slot";
+            feed.close();
+            ChangeFeed smallFeed = new ChangeFeed(testDatabase, 16, 1);
+            try {
+                OutputStream gone = new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("the client has gone");
+                    }
+                };
+                assert smallFeed.subscribe(gone, () -> { }, null);
+                smallFeed.onChange(testDatabase.getDataVersion() + 1, DatabaseListener.Change.ADDED, new int[] {1},
+                        new int[0]);
+                assert waitFor(() -> smallFeed.getSubscriberCount() == 0);
+                assert smallFeed.subscribe(new ByteArrayOutputStream(), () -> { }, null);
+            }
+            finally {
+                smallFeed.close();
+            }
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            threads.shutdown();
+            feed.close();
+        }
+    }
+
+    @Test
+    public void testChangeFeedEvictsSlowClient(){
+        ChangeFeed feed = new ChangeFeed(testDatabase, 16, 10, 16, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            AtomicBoolean stuckClosed = new AtomicBoolean();
+            feed.subscribe(new BlockingStream(new ByteArrayOutputStream(), release), () -> stuckClosed.set(true),
+                    null);
+            ByteArrayOutputStream healthy = new ByteArrayOutputStream();
+            feed.subscribe(healthy, () -> { }, null);
+            long version = testDatabase.getDataVersion();
+            feed.onChange(version + 1, DatabaseListener.Change.ADDED, new int[] {1}, new int[0]);
+
+            errorMessage = "A client stuck on a write wasn't dropped once the write timed out";
+            assert waitFor(() -> feed.getEvictionCount() == 1);
+            assert feed.getSubscriberCount() == 1;
+
+            errorMessage = "Other subscribers stopped getting events while a client was stuck";
+            for (int i = 2; i <= 6; i++) {
+                feed.onChange(version + i, DatabaseListener.Change.ADDED, new int[] {i}, new int[0]);
+            }
+            assert waitFor(() -> countEvents(healthy, "task_created") == 6);
+
+            errorMessage = "The dropped client's connection wasn't closed once its write returned";
+            assert !stuckClosed.get();
+            release.countDown();
+            assert waitFor(stuckClosed::get);
+        }
+        catch (AssertionError e){
+            System.out.println(errorMessage);
+            throw e;
+        }
+        finally {
+            release.countDown();
+            feed.close();
+        }
+    }
+
+    private static int countEvents(ByteArrayOutputStream client, String type){
+        String events = client.toString(StandardCharsets.UTF_8);
+        int count = 0;
+        String line = "event: " + type + "\n";
+        for (int i = events.indexOf(line); i >= 0; i = events.indexOf(line, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    // polls condition for up to five seconds
+    private static boolean waitFor(BooleanSupplier condition){
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(5);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a client that doesn't read anything until release is counted down
+    private static class BlockingStream extends OutputStream {
+
+        private final OutputStream out;
+        private final CountDownLatch release;
+
+        BlockingStream(OutputStream out, CountDownLatch release){
+            this.out = out;
+            this.release = release;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            out.write(bytes, offset, length);
+        }
+    }
+
+    // a client that drops one write once limit bytes have been sent, the way a broken connection throws,
+    // and gets everything after it, so the end of the response can still be checked
+    private static class DroppingStream extends OutputStream {
+
+        private final OutputStream out;
+        private final int limit;
+        private int written = 0;
+        private boolean dropped = false;
+
+        DroppingStream(OutputStream out, int limit){
+            this.out = out;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            written += length;
+            if (!dropped && written > limit) {
+                dropped = true;
+                throw new IOException("Broken pipe");
+            }
+            out.write(bytes, offset, length);
+        }
+    }
+
+    // a GET request as the handler sees it, with the response body kept in memory
+    private static class TestExchange extends HttpExchange {
+
+        private final URI requestURI;
+        private final Headers requestHeaders = new Headers();
+        private final Headers responseHeaders = new Headers();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final OutputStream responseBody;
+        private int responseCode = -1;
+        private long responseLength;
+
+        TestExchange(String requestURI, String acceptEncoding){
+            this(requestURI, acceptEncoding, null);
+        }
+
+        // responseBody is written to instead of getBody(), if it isn't null
+        TestExchange(String requestURI, String acceptEncoding, OutputStream responseBody){
+            this.requestURI = URI.create(requestURI);
+            if (acceptEncoding != null) {
+                requestHeaders.set("Accept-Encoding", acceptEncoding);
+            }
+            this.responseBody = responseBody != null ? responseBody : body;
+        }
+
+        ByteArrayOutputStream getBody() { return body; }
+        long getResponseLength() { return responseLength; }
+
+        @Override public Headers getRequestHeaders() { return requestHeaders; }
+        @Override public Headers getResponseHeaders() { return responseHeaders; }
+        @Override public URI getRequestURI() { return requestURI; }
+        @Override public String getRequestMethod() { return "GET"; }
+        @Override public HttpContext getHttpContext() { return null; }
+        @Override public void close() { }
+        @Override public InputStream getRequestBody() { return new ByteArrayInputStream(new byte[0]); }
+        @Override public OutputStream getResponseBody() { return responseBody; }
+        @Override public InetSocketAddress getRemoteAddress() { return new InetSocketAddress("127.0.0.1", 50000); }
+        @Override public int getResponseCode() { return responseCode; }
+        @Override public InetSocketAddress getLocalAddress() { return new InetSocketAddress("127.0.0.1", 5000); }
+        @Override public String getProtocol() { return "HTTP/1.1"; }
+        @Override public Object getAttribute(String name) { return null; }
+        @Override public void setAttribute(String name, Object value) { }
+        @Override public void setStreams(InputStream in, OutputStream out) { }
+        @Override public HttpPrincipal getPrincipal() { return null; }
+
+        @Override
+        public void sendResponseHeaders(int responseCode, long responseLength){
+            this.responseCode = responseCode;
+            this.responseLength = responseLength;
+        }
+    }
+
+    // the value of the Prometheus sample with this name and labels
+    private static double sample(String text, String series){
+        for (String line : text.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return Double.parseDouble(line.substring(series.length() + 1));
+            }
+        }
+        throw new AssertionError("no sample " + series);
+    }
+
+    private static String sha3(String input){
+        return Hex.toHexString(new SHA3.Digest512().digest(input.getBytes()));
+    }
+
+    // a body that compresses about as well as a task list does
+    private static byte[] makeBody(int length){
+        StringBuilder body = new StringBuilder();
+        Random random = new Random(4);
+        while (body.length() < length) {
+            body.append("{\"id\":\"").append(random.nextInt(100000)).append("\",\"task_name\":\"Test Row\"},");
+        }
+        return body.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private List<Integer> getReadyIDs() throws IOException {
+        List<Integer> IDs = new ArrayList<>();
+        testDatabase.streamReadyTasks(task -> IDs.add(task.getID()));
+        return IDs;
     }
 
     private void populateTable(){
@@ -258,7 +1909,7 @@ public class testDB {
             requirements.add("Req 2");
             requirements.add("Req 3");
             Task task = new Task(String.format("Test Row #%s", i + 1), "This is a test",
-                    requirements, new Date(), false, new ArrayList<>(), new ArrayList<>());
+                    requirements, new Date().getTime(), false, new int[0]);
             testDatabase.addTask(task);
         }
     }
@@ -268,8 +1919,10 @@ public class testDB {
             Statement statement = connection.createStatement();
 
             String clearTableUpdate = "DELETE FROM Tasks";
+            String clearDependenciesUpdate = "DELETE FROM Dependencies";
 
             statement.executeUpdate(clearTableUpdate);
+            statement.executeUpdate(clearDependenciesUpdate);
         }
         catch (SQLException e){
             e.printStackTrace();